@@ -34,6 +34,7 @@ import javax.servlet.http.HttpSession;
 import org.expressme.openid.Authentication;
 
 import v7cr.v7db.AccountInfo;
+import v7cr.v7db.Permissions;
 import v7cr.v7db.Role;
 import v7cr.v7db.Roles;
 import v7cr.v7db.SessionInfo;
@@ -67,9 +68,10 @@ public class AuthFilter implements Filter {
 				if (auth == null) {
 
 					// check if an admin has already been registered
-					Role admins = Roles.load(InitDB.getDBCollection(context,
-							"roles"), "admin");
-					if (admins.getMembers().isEmpty()) {
+					Role admins = Roles.getRoleGraph(
+							InitDB.getDBCollection(context, "roles")).getRole(
+							"admin");
+					if (admins == null || admins.getMembers().isEmpty()) {
 						((HttpServletResponse) resp).sendRedirect(request
 								.getContextPath()
 								+ "/install.html");
@@ -109,6 +111,7 @@ public class AuthFilter implements Filter {
 						if (admins.getMembers().isEmpty()) {
 							admins = admins.addMember(account);
 							ac.save(new BasicDBObject(admins.getBSONObject()));
+							Roles.invalidate(ac);
 							roles = Roles.loadRoles(InitDB.getDBCollection(
 									context, "roles"), account.getId());
 						}
@@ -120,7 +123,7 @@ public class AuthFilter implements Filter {
 					}
 					SessionInfo sessionInfo = new SessionInfo();
 					sessionInfo.accountInfo = account;
-					sessionInfo.roles = roles;
+					sessionInfo.permissions = Permissions.of(roles.keySet());
 					session.setAttribute("v7cr.sessionInfo", sessionInfo);
 				} else {
 					throw new SecurityException(
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+
+/**
+ * The paths changed in an SVN commit, as a tree of directories.
+ *
+ * Directories that contain only a single entry (and were not changed
+ * themselves) are merged with that entry, so that a common prefix like
+ * "/trunk/src/main/java/" is shown as one node instead of five.
+ *
+ * The tree is built in a single pass over the paths, and the merging is done
+ * in a single pass over the tree.
+ */
+
+class ChangeTree {
+
+	@SuppressWarnings("serial")
+	static class Node implements Serializable {
+
+		private final String path;
+
+		private SVNLogEntryPath entry;
+
+		private Map<String, Node> children;
+
+		private int count;
+
+		private Node(String path) {
+			this.path = path;
+		}
+
+		private Node child(String name) {
+			if (children == null)
+				children = new LinkedHashMap<String, Node>();
+			Node c = children.get(name);
+			if (c == null) {
+				c = new Node(path + "/" + name);
+				children.put(name, c);
+			}
+			return c;
+		}
+
+		boolean hasChildren() {
+			return children != null;
+		}
+
+		Collection<Node> getChildren() {
+			if (children == null)
+				return Collections.emptyList();
+			return children.values();
+		}
+
+		/**
+		 * @return the number of changed paths in this node (including itself)
+		 */
+		int getCount() {
+			return count;
+		}
+
+		String getCaption() {
+			if (entry == null)
+				return path + "/(" + count + ")";
+			if (children == null)
+				return entry.getType() + " " + path;
+			return entry.getType() + " " + path + " (" + count + ")";
+		}
+
+		@Override
+		public String toString() {
+			return path;
+		}
+	}
+
+	private final Node root = new Node("");
+
+	ChangeTree(Collection<SVNLogEntryPath> changed) {
+		for (SVNLogEntryPath e : changed) {
+			Node n = root;
+			for (String name : StringUtils.split(e.getPath(), '/')) {
+				n = n.child(name);
+			}
+			n.entry = e;
+		}
+		compress(root);
+	}
+
+	// merges unchanged directories that have only one child with that child,
+	// and counts the changed paths
+	private static int compress(Node n) {
+		int count = n.entry == null ? 0 : 1;
+		if (n.children != null) {
+			List<String> names = new ArrayList<String>(n.children.keySet());
+			for (String name : names) {
+				Node c = n.children.get(name);
+				while (c.entry == null && c.children != null
+						&& c.children.size() == 1) {
+					c = c.children.values().iterator().next();
+				}
+				n.children.put(name, c);
+				count += compress(c);
+			}
+		}
+		n.count = count;
+		return count;
+	}
+
+	/**
+	 * @return the top-level nodes, starting at the first directory that has
+	 *         more than one entry
+	 */
+	Collection<Node> getRoots() {
+		Node n = root;
+		while (n.entry == null && n.children != null
+				&& n.children.size() == 1) {
+			Node c = n.children.values().iterator().next();
+			if (!c.hasChildren())
+				break;
+			n = c;
+		}
+		return n.getChildren();
+	}
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import v7cr.v7db.FileStore;
+
+/**
+ * Downloads attachments from the FileStore, as /file/sha/filename
+ */
+
+@SuppressWarnings("serial")
+public class FileServlet extends HttpServlet {
+
+	@Override
+	protected void doGet(HttpServletRequest request,
+			HttpServletResponse response) throws ServletException, IOException {
+		String path = request.getPathInfo();
+		int slash = path == null ? -1 : path.indexOf('/', 1);
+		if (slash < 0) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		String sha = path.substring(1, slash);
+		String fileName = path.substring(slash + 1);
+
+		FileStore.Content content = InitDB.getFileStore(getServletContext())
+				.get(sha);
+		if (content == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		String type = getServletContext().getMimeType(fileName);
+		response.setContentType(type == null ? "application/octet-stream"
+				: type);
+		response.setHeader("Content-Disposition", "attachment");
+		long length = content.getLength();
+		if (length >= 0 && length <= Integer.MAX_VALUE)
+			response.setContentLength((int) length);
+		// the contents for a SHA-1 never change
+		response.setHeader("Cache-Control", "private, max-age=31536000");
+		content.writeTo(Channels.newChannel(response.getOutputStream()));
+	}
+
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.tmatesoft.svn.core.ISVNLogEntryHandler;
+import org.tmatesoft.svn.core.SVNCancelException;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+
+import v7cr.v7db.BatchInserter;
+
+import com.mongodb.DBObject;
+
+/**
+ * Imports the log entries of one project in three stages, connected by
+ * bounded queues: fetching from SVN (on the thread that calls doLog with
+ * this handler), converting the entries to reviews, and writing those through
+ * a BatchInserter (each on their own thread). That way, waiting for the SVN
+ * server and waiting for MongoDB overlap. If writing cannot keep up, the
+ * queues fill up and fetching is blocked until there is room again.
+ *
+ * For every queue, the time the stage before it was blocked because it was
+ * full, and the time the stage after it waited because it was empty, are
+ * recorded, as well as its maximum length.
+ */
+
+class ImportPipeline implements ISVNLogEntryHandler {
+
+	private static final int QUEUE_SIZE = 500;
+
+	private static final long POLL_MILLIS = 1000;
+
+	private static final Object END = new Object();
+
+	private static final class Checkpoint {
+
+		private final long rev;
+
+		private Checkpoint(long rev) {
+			this.rev = rev;
+		}
+	}
+
+	final class Channel {
+
+		private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(
+				QUEUE_SIZE);
+
+		private final AtomicLong putStall = new AtomicLong();
+
+		private final AtomicLong takeStall = new AtomicLong();
+
+		private volatile int maxDepth;
+
+		private void put(Object o) throws InterruptedException {
+			checkFailure();
+			if (!queue.offer(o)) {
+				long start = System.nanoTime();
+				while (!queue.offer(o, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					checkFailure();
+				}
+				putStall.addAndGet(System.nanoTime() - start);
+			}
+			int depth = queue.size();
+			if (depth > maxDepth)
+				maxDepth = depth;
+		}
+
+		/**
+		 * @return null, if nothing arrived within POLL_MILLIS
+		 */
+		private Object poll() throws InterruptedException {
+			Object o = queue.poll();
+			if (o != null)
+				return o;
+			long start = System.nanoTime();
+			o = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			takeStall.addAndGet(System.nanoTime() - start);
+			checkFailure();
+			return o;
+		}
+
+		/**
+		 * @return the number of objects waiting in the queue
+		 */
+		int getDepth() {
+			return queue.size();
+		}
+
+		int getMaxDepth() {
+			return maxDepth;
+		}
+
+		/**
+		 * @return how long the stage before the queue was blocked because it
+		 *         was full
+		 */
+		long getPutStallMillis() {
+			return putStall.get() / 1000000;
+		}
+
+		/**
+		 * @return how long the stage after the queue waited because it was
+		 *         empty
+		 */
+		long getTakeStallMillis() {
+			return takeStall.get() / 1000000;
+		}
+
+		@Override
+		public String toString() {
+			return "max. " + maxDepth + ", blocked " + getPutStallMillis()
+					+ "ms, starved " + getTakeStallMillis() + "ms";
+		}
+	}
+
+	private final SVNImporter importer;
+
+	private final String projectId;
+
+	private final BatchInserter inserter;
+
+	/**
+	 * log entries, from fetching to conversion
+	 */
+	final Channel entries = new Channel();
+
+	/**
+	 * review documents, from conversion to writing
+	 */
+	final Channel reviews = new Channel();
+
+	private final Thread converter;
+
+	private final Thread writer;
+
+	private volatile Throwable failure;
+
+	private long lastFetchedRevision = -1;
+
+	ImportPipeline(final SVNImporter importer, final String projectId,
+			final BatchInserter inserter) {
+		this.importer = importer;
+		this.projectId = projectId;
+		this.inserter = inserter;
+		converter = new Thread(new Stage() {
+			@Override
+			void run(Object o) throws InterruptedException {
+				// only the writer has something to do when idle
+				if (o == null)
+					return;
+				if (o instanceof SVNLogEntry) {
+					o = SVNImporter.toReview(projectId, (SVNLogEntry) o);
+				}
+				reviews.put(o);
+			}
+
+			@Override
+			Channel getInput() {
+				return entries;
+			}
+		}, "svn-import-convert-" + projectId);
+		writer = new Thread(new Stage() {
+			@Override
+			void run(Object o) {
+				if (o == null) {
+					inserter.flushIfDue();
+				} else if (o instanceof Checkpoint) {
+					inserter.flush();
+					importer.setLastImportedRevision(projectId,
+							((Checkpoint) o).rev);
+				} else if (o == END) {
+					inserter.flush();
+				} else {
+					inserter.insert((DBObject) o);
+				}
+			}
+
+			@Override
+			Channel getInput() {
+				return reviews;
+			}
+		}, "svn-import-write-" + projectId);
+	}
+
+	private abstract class Stage implements Runnable {
+
+		/**
+		 * handles an object from the input queue (null if nothing arrived
+		 * for a while)
+		 */
+		abstract void run(Object o) throws InterruptedException;
+
+		abstract Channel getInput();
+
+		public void run() {
+			try {
+				while (true) {
+					Object o = getInput().poll();
+					run(o);
+					if (o == END)
+						return;
+				}
+			} catch (Throwable t) {
+				fail(t);
+			}
+		}
+	}
+
+	void start() {
+		converter.start();
+		writer.start();
+	}
+
+	public void handleLogEntry(SVNLogEntry logEntry) throws SVNException {
+		try {
+			entries.put(logEntry);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SVNCancelException();
+		} catch (RuntimeException e) {
+			// conversion or writing failed, see checkFailure
+			throw new SVNCancelException();
+		}
+		lastFetchedRevision = logEntry.getRevision();
+	}
+
+	/**
+	 * @return the revision of the last log entry, -1 if there was none yet
+	 */
+	long getLastFetchedRevision() {
+		return lastFetchedRevision;
+	}
+
+	/**
+	 * records the revision as imported, once everything before it has been
+	 * written
+	 */
+	void checkpoint(long rev) throws InterruptedException {
+		entries.put(new Checkpoint(rev));
+	}
+
+	/**
+	 * waits until everything has been written
+	 */
+	void finish() throws InterruptedException {
+		entries.put(END);
+		converter.join();
+		writer.join();
+		checkFailure();
+	}
+
+	/**
+	 * stops the conversion and writing threads, without waiting for them to
+	 * finish their work
+	 */
+	void abort() {
+		fail(new CancellationException("import aborted"));
+		converter.interrupt();
+		writer.interrupt();
+	}
+
+	private void fail(Throwable t) {
+		synchronized (this) {
+			if (failure == null)
+				failure = t;
+		}
+	}
+
+	/**
+	 * rethrows the exception that stopped the pipeline, if any
+	 */
+	void checkFailure() {
+		Throwable t = failure;
+		if (t == null)
+			return;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		CancellationException e = new CancellationException(
+				"import failed: " + t);
+		e.initCause(t);
+		throw e;
+	}
+
+	@Override
+	public String toString() {
+		return "log entries: " + entries + ", reviews: " + reviews;
+	}
+}
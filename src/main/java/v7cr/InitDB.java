@@ -17,28 +17,99 @@
 
 package v7cr;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
 
+import v7cr.v7db.FileStore;
+import v7cr.v7db.GridFSFileStore;
+import v7cr.v7db.HttpFileStore;
+import v7cr.v7db.LocalFileStore;
+import v7cr.v7db.MigratingFileStore;
+
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.Mongo;
+import com.mongodb.MongoException;
 import com.mongodb.util.JSON;
 
 /**
- * Manages the connection to MongoDB
+ * Manages the connection to MongoDB, the HTTP client, and the file store
  */
 
 public class InitDB implements ServletContextListener {
 
-	public void contextDestroyed(ServletContextEvent e) {
+	private static final Logger log = Logger.getLogger(InitDB.class.getName());
+
+	/**
+	 * the indexes we need, as { collection, keys, options }
+	 */
+	private static final Object[][] INDEXES = {
+			// ReviewList, with and without status filter
+			{ "reviews",
+					new BasicDBObject("p", 1).append("s", 1).append("c", -1)
+							.append("_id", -1), null },
+			{ "reviews", new BasicDBObject("p", 1).append("c", -1)
+					.append("_id", -1), null },
+			// one review per revision
+			{ "reviews", new BasicDBObject("p", 1).append("svn.rev", 1),
+					new BasicDBObject("unique", true) } };
+
+	/**
+	 * where the external file service was expected, unless the context
+	 * parameter v7cr.upload.url said otherwise
+	 */
+	private static final String LEGACY_UPLOAD_URL = "http://0.0.0.0:8088/upload/v7cr";
+
+	/**
+	 * the queries we run, as { collection, equality fields, sort }, to check
+	 * that there is an index for each of them
+	 */
+	private static final Object[][] QUERY_SHAPES = {
+			// ReviewList
+			{ "reviews", new String[] { "p" },
+					new BasicDBObject("c", -1).append("_id", -1) },
+			{ "reviews", new String[] { "p", "s" },
+					new BasicDBObject("c", -1).append("_id", -1) },
+			// V7CR.getWindow
+			{ "reviews", new String[] { "p", "svn.rev" }, new BasicDBObject() },
+			// latest imported revision
+			{ "reviews", new String[] { "p" }, new BasicDBObject("svn.rev", -1) } };
 
+	public void contextDestroyed(ServletContextEvent e) {
+		ServletContext c = e.getServletContext();
+		SVNImporter importer = (SVNImporter) c.getAttribute(SVNImporter.class
+				.getName());
+		if (importer != null)
+			importer.stop();
+		HttpClient http = getHttpClient(c);
+		if (http != null) {
+			c.removeAttribute(HttpClient.class.getName());
+			http.getConnectionManager().shutdown();
+		}
 	}
 
 	@SuppressWarnings("unchecked")
@@ -48,6 +119,8 @@ public class InitDB implements ServletContextListener {
 
 			ServletContext c = e.getServletContext();
 			c.setAttribute(getClass().getName(), db);
+			c.setAttribute(HttpClient.class.getName(), createHttpClient(c));
+			c.setAttribute(FileStore.class.getName(), createFileStore(c));
 
 			// check if the "roles" collection
 			// exists, if not create it
@@ -63,11 +136,155 @@ public class InitDB implements ServletContextListener {
 				}
 
 			}
+
+			ensureIndexes(c);
+			checkQueryShapes(c);
+
+			SVNImporter importer = new SVNImporter(getDB(c));
+			c.setAttribute(SVNImporter.class.getName(), importer);
+			importer.start();
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
 		}
 	}
 
+	private static void ensureIndexes(ServletContext c) {
+		for (Object[] i : INDEXES) {
+			DBCollection coll = getDBCollection(c, (String) i[0]);
+			DBObject keys = (DBObject) i[1];
+			DBObject options = i[2] == null ? new BasicDBObject()
+					: (DBObject) i[2];
+			try {
+				coll.ensureIndex(keys, options);
+			} catch (MongoException ex) {
+				// for example, duplicates in a unique index
+				log.log(Level.WARNING, "failed to create index " + keys
+						+ " on " + i[0], ex);
+			}
+		}
+	}
+
+	private static void checkQueryShapes(ServletContext c) {
+		for (Object[] q : QUERY_SHAPES) {
+			String[] fields = (String[]) q[1];
+			DBObject sort = (DBObject) q[2];
+			boolean covered = false;
+			for (DBObject index : getDBCollection(c, (String) q[0])
+					.getIndexInfo()) {
+				if (isCovered((DBObject) index.get("key"), fields, sort)) {
+					covered = true;
+					break;
+				}
+			}
+			if (!covered) {
+				log.warning("no index on " + q[0] + " for query on "
+						+ Arrays.toString(fields) + " sorted by " + sort
+						+ ", this will be a collection scan");
+			}
+		}
+	}
+
+	/**
+	 * an index can be used for the query if it starts with the equality fields
+	 * (in any order), followed by the sort fields (all in the same, or all in
+	 * the opposite direction)
+	 */
+	private static boolean isCovered(DBObject key, String[] fields,
+			DBObject sort) {
+		List<String> keys = new ArrayList<String>(key.keySet());
+		if (keys.size() < fields.length + sort.keySet().size())
+			return false;
+		if (!new HashSet<String>(keys.subList(0, fields.length))
+				.equals(new HashSet<String>(Arrays.asList(fields))))
+			return false;
+		int i = fields.length;
+		Boolean reversed = null;
+		for (String s : sort.keySet()) {
+			if (!s.equals(keys.get(i)))
+				return false;
+			double k = ((Number) key.get(s)).doubleValue();
+			double o = ((Number) sort.get(s)).doubleValue();
+			boolean same = Math.signum(k) == Math.signum(o);
+			if (reversed == null)
+				reversed = !same;
+			else if (reversed == same)
+				return false;
+			i++;
+		}
+		return true;
+	}
+
+	/**
+	 * a client with a connection pool, shared by all sessions. Configured by
+	 * the context parameters v7cr.http.maxConnections (default 20),
+	 * v7cr.http.maxConnectionsPerHost (default 10), v7cr.http.keepAlive
+	 * (seconds to keep idle connections open if the server does not say, 30)
+	 * and v7cr.http.timeout (seconds, 60)
+	 */
+	private static HttpClient createHttpClient(ServletContext c) {
+		ThreadSafeClientConnManager pool = new ThreadSafeClientConnManager(
+				SchemeRegistryFactory.createDefault());
+		pool.setMaxTotal(getIntParameter(c, "v7cr.http.maxConnections", 20));
+		pool.setDefaultMaxPerRoute(getIntParameter(c,
+				"v7cr.http.maxConnectionsPerHost", 10));
+		HttpParams params = new BasicHttpParams();
+		int timeout = getIntParameter(c, "v7cr.http.timeout", 60) * 1000;
+		HttpConnectionParams.setConnectionTimeout(params, timeout);
+		HttpConnectionParams.setSoTimeout(params, timeout);
+		DefaultHttpClient http = new DefaultHttpClient(pool, params);
+		final long keepAlive = getIntParameter(c, "v7cr.http.keepAlive", 30)
+				* 1000L;
+		http.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+
+			private final ConnectionKeepAliveStrategy server = new DefaultConnectionKeepAliveStrategy();
+
+			public long getKeepAliveDuration(HttpResponse response,
+					HttpContext context) {
+				long d = server.getKeepAliveDuration(response, context);
+				return d < 0 ? keepAlive : d;
+			}
+		});
+		return http;
+	}
+
+	/**
+	 * where attachments are stored: in the directory given by the context
+	 * parameter v7cr.files.dir, or (by default) in GridFS.
+	 * 
+	 * Attachments uploaded before that are in the external file service at
+	 * v7cr.upload.url (by default LEGACY_UPLOAD_URL). They are copied over
+	 * when they are downloaded for the first time. Set v7cr.upload.url to an
+	 * empty value if there is no such service.
+	 */
+	private static FileStore createFileStore(ServletContext c) {
+		String dir = c.getInitParameter("v7cr.files.dir");
+		FileStore store = dir == null ? new GridFSFileStore(getDB(c), "files")
+				: new LocalFileStore(new File(dir.trim()));
+		String url = c.getInitParameter("v7cr.upload.url");
+		if (url == null)
+			url = LEGACY_UPLOAD_URL;
+		if (url.trim().length() == 0)
+			return store;
+		return new MigratingFileStore(store, new HttpFileStore(
+				getHttpClient(c), url.trim()));
+	}
+
+	private static int getIntParameter(ServletContext c, String name,
+			int defaultValue) {
+		String v = c.getInitParameter(name);
+		if (v == null)
+			return defaultValue;
+		return Integer.parseInt(v.trim());
+	}
+
+	static HttpClient getHttpClient(ServletContext c) {
+		return (HttpClient) c.getAttribute(HttpClient.class.getName());
+	}
+
+	static FileStore getFileStore(ServletContext c) {
+		return (FileStore) c.getAttribute(FileStore.class.getName());
+	}
+
 	static Mongo getMongo(ServletContext c) {
 		return (Mongo) c.getAttribute(InitDB.class.getName());
 	}
@@ -18,6 +18,7 @@
 package v7cr;
 
 import v7cr.v7db.BSONBackedObject;
+import v7cr.v7db.Roles;
 import v7cr.vaadin.BSONFormFieldFactory;
 import v7cr.vaadin.BSONItem;
 
@@ -164,6 +165,7 @@ class ProjectEditor extends CustomComponent implements ItemClickListener,
 						"Reviewers of project '" + b.get("_id") + "'").get();
 
 				v7.insert("roles", r);
+				Roles.invalidate(v7.getDBCollection("roles"));
 				rightSide.removeAllComponents();
 				reload(v7);
 
@@ -22,6 +22,7 @@ import static org.tmatesoft.svn.core.SVNRevisionProperty.DATE;
 import static org.tmatesoft.svn.core.SVNRevisionProperty.LOG;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -42,7 +43,11 @@ import v7cr.v7db.AccountInfo;
 import v7cr.v7db.BSONBackedObject;
 import v7cr.v7db.BSONBackedObjectLoader;
 import v7cr.v7db.SchemaDefinition;
+import v7cr.v7db.Versioning;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.vaadin.ui.Component;
 import com.vaadin.ui.ComponentContainer;
 
@@ -50,6 +55,11 @@ public class Review extends BSONBackedObject {
 
 	private static final SchemaDefinition schema;
 
+	/**
+	 * the vote counters: { n : total, '+' : good, '0' : neutral, '-' : bad }
+	 */
+	static final String VOTE_COUNTS = "vc";
+
 	static {
 		try {
 			schema = new SchemaDefinition(BSONBackedObjectLoader.parse(IOUtils
@@ -145,6 +155,16 @@ public class Review extends BSONBackedObject {
 
 	public Review addVote(AccountInfo user, Date date, String comment,
 			String vote, ComponentContainer files) {
+		return addVote(createVote(user, date, comment, vote, files));
+	}
+
+	Review addVote(BSONObject vote) {
+		return new Review(push("v", BSONBackedObjectLoader.wrap(vote, null)))
+				.updateStatus();
+	}
+
+	static BSONObject createVote(AccountInfo user, Date date, String comment,
+			String vote, ComponentContainer files) {
 		BSONObject v = new BasicBSONObject("c", comment).append("d", date)
 				.append("v", vote).append("by", user.getBSONObject());
 		if (files != null) {
@@ -158,9 +178,41 @@ public class Review extends BSONBackedObject {
 				v.put("files", fileData);
 			}
 		}
-		Review r = new Review(push("v", BSONBackedObjectLoader.wrap(v, null)))
-				.updateStatus();
-		return r;
+		return v;
+	}
+
+	/**
+	 * appends a vote to the review in the database, without loading or
+	 * rewriting the other votes: The vote is added with $push and the vote
+	 * counters are incremented in the same operation, then the status is
+	 * derived from the counters.
+	 * 
+	 * @return false, if the review has votes, but no counters yet. Use
+	 *         addVote(BSONObject) and a versioned update in that case, which
+	 *         will count the votes.
+	 */
+	static boolean pushVote(DBCollection reviews, Object id, BSONObject vote) {
+		DBObject query = new BasicDBObject("_id", id).append("$or", Arrays
+				.asList(new BasicDBObject(VOTE_COUNTS, new BasicDBObject(
+						"$exists", true)), new BasicDBObject("v",
+						new BasicDBObject("$exists", false))));
+		DBObject modifiers = new BasicDBObject("$push", new BasicDBObject(
+				"v", vote)).append("$inc", new BasicDBObject(VOTE_COUNTS
+				+ ".n", 1).append(VOTE_COUNTS + "." + vote.get("v"), 1));
+		DBObject r = Versioning.modify(reviews, query, modifiers,
+				new BasicDBObject("s", 1).append(VOTE_COUNTS, 1));
+		if (r == null)
+			return false;
+		BSONObject counts = (BSONObject) r.get(VOTE_COUNTS);
+		String status = calculateStatus(counts);
+		if (!status.equals(r.get("s"))) {
+			// only if there was no other vote in the meantime,
+			// otherwise that one sets the status
+			Versioning.modify(reviews, new BasicDBObject("_id", id).append(
+					VOTE_COUNTS, counts), new BasicDBObject("$set",
+					new BasicDBObject("s", status)), new BasicDBObject());
+		}
+		return true;
 	}
 
 	public Review deleteVote(BSONBackedObject vote) {
@@ -179,32 +231,44 @@ public class Review extends BSONBackedObject {
 		return new Review(unset("v").pushAll("v", votes)).updateStatus();
 	}
 
-	private String calculateStatus() {
-		String status = "new";
+	private BSONObject countVotes() {
+		BSONObject counts = new BasicBSONObject("n", 0);
 		BSONBackedObject[] votes = getObjectFieldAsArray("v");
-		if (votes == null || votes.length == 0)
-			return status;
-		status = "review";
-		int good = 0;
-		// TODO: very user gets to vote just once
+		if (votes == null)
+			return counts;
+		counts.put("n", votes.length);
 		for (BSONBackedObject v : votes) {
 			String vv = v.getStringField("v");
-			if ("-".equals(vv))
-				return "not good";
-			if ("+".equals(vv))
-				good++;
+			if (vv != null)
+				counts.put(vv, getCount(counts, vv) + 1);
 		}
-		if (good >= 2)
-			return "okay";
-		return status;
+		return counts;
+	}
 
+	private static int getCount(BSONObject counts, String key) {
+		Number n = (Number) counts.get(key);
+		return n == null ? 0 : n.intValue();
+	}
+
+	private static String calculateStatus(BSONObject counts) {
+		if (counts == null || getCount(counts, "n") == 0)
+			return "new";
+		// TODO: very user gets to vote just once
+		if (getCount(counts, "-") > 0)
+			return "not good";
+		if (getCount(counts, "+") >= 2)
+			return "okay";
+		return "review";
 	}
 
 	Review updateStatus() {
-		String s = calculateStatus();
-		if (s.equals(getStatus()))
+		BSONObject c = countVotes();
+		String s = calculateStatus(c);
+		BSONBackedObject counts = BSONBackedObjectLoader.wrap(c, null);
+		if (s.equals(getStatus())
+				&& counts.equals(getObjectField(VOTE_COUNTS)))
 			return this;
-		return new Review(append("s", s));
+		return new Review(append(VOTE_COUNTS, counts).append("s", s));
 	}
 
 	public static SchemaDefinition getReviewSchemaDefinition() {
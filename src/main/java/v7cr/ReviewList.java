@@ -31,6 +31,7 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.vaadin.data.Property.ValueChangeEvent;
 import com.vaadin.data.Property.ValueChangeListener;
+import com.vaadin.data.util.filter.Compare;
 import com.vaadin.event.ItemClickEvent;
 import com.vaadin.event.ItemClickEvent.ItemClickListener;
 import com.vaadin.terminal.ThemeResource;
@@ -50,7 +51,7 @@ class ReviewList extends CustomComponent implements ItemClickListener,
 
 	private final Table table;
 
-	private transient Object filterStatus;
+	private final DBCollectionContainer reviews;
 
 	ReviewList(String projectName) {
 		setIcon(new ThemeResource("../runo/icons/16/note.png"));
@@ -80,7 +81,7 @@ class ReviewList extends CustomComponent implements ItemClickListener,
 
 		vl.addComponent(table);
 		setCompositionRoot(vl);
-		reload();
+		reviews = createContainer();
 		table.addListener((ItemClickListener) this);
 
 	}
@@ -106,17 +107,15 @@ class ReviewList extends CustomComponent implements ItemClickListener,
 		}
 	}
 
-	public void reload() {
+	private DBCollectionContainer createContainer() {
 		DBCollection coll = V7CR.getInstance().getDBCollection("reviews");
 
 		BasicDBObject filter = new BasicDBObject("p", projectName);
-		if (filterStatus != null)
-			filter.append("s", filterStatus);
 
 		SchemaDefinition sd = Review.getReviewSchemaDefinition();
 
 		DBCollectionContainer reviews = new DBCollectionContainer(sd, coll,
-				filter, "c", false);
+				filter, "c", false, true);
 
 		// BeanContainer<ObjectId, Review> reviews = new BeanContainer<ObjectId,
 		// Review>(
@@ -130,10 +129,14 @@ class ReviewList extends CustomComponent implements ItemClickListener,
 		// reviews.addBean(r);
 		// }
 
-		table.setContainerDataSource(reviews);
-
 		reviews.addContainerProperty("reviewee.n", String.class, null);
 		reviews.addContainerProperty("svn.rev", String.class, null);
+		// do not load the changed paths and such for the list
+		reviews.removeContainerProperty("svn");
+		reviews.removeContainerProperty("reviewee");
+		reviews.removeContainerProperty("p");
+
+		table.setContainerDataSource(reviews);
 
 		Locale l = V7CR.getInstance().getLocale();
 
@@ -148,12 +151,17 @@ class ReviewList extends CustomComponent implements ItemClickListener,
 				sd.getFieldCaption("t", l),
 				sd.getFieldCaption("svn.fields.rev", l) });
 
-		table.setSortDisabled(true);
+		return reviews;
+	}
 
+	public void reload() {
+		reviews.refresh();
 	}
 
 	public void valueChange(ValueChangeEvent event) {
-		filterStatus = event.getProperty().getValue();
-		reload();
+		Object filterStatus = event.getProperty().getValue();
+		reviews.removeAllContainerFilters();
+		if (filterStatus != null)
+			reviews.addContainerFilter(new Compare.Equal("s", filterStatus));
 	}
 }
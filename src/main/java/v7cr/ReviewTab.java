@@ -17,10 +17,6 @@
 
 package v7cr;
 
-import static org.apache.commons.lang.ArrayUtils.EMPTY_STRING_ARRAY;
-
-import java.io.File;
-import java.io.IOException;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,18 +25,21 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DurationFormatUtils;
+import org.bson.BSONObject;
 import org.bson.types.ObjectId;
 import org.tmatesoft.svn.core.SVNLogEntry;
 import org.tmatesoft.svn.core.SVNLogEntryPath;
-import org.vaadin.easyuploads.MultiFileUpload;
 
 import v7cr.v7db.BSONBackedObject;
+import v7cr.v7db.FieldPath;
+import v7cr.v7db.FileStore;
 import v7cr.v7db.LocalizedString;
 import v7cr.v7db.SchemaDefinition;
+import v7cr.v7db.Versioning;
+import v7cr.vaadin.V7MultiFileUpload;
 
 import com.vaadin.terminal.ExternalResource;
 import com.vaadin.terminal.ThemeResource;
@@ -57,6 +56,7 @@ import com.vaadin.ui.Panel;
 import com.vaadin.ui.TabSheet;
 import com.vaadin.ui.TextArea;
 import com.vaadin.ui.Tree;
+import com.vaadin.ui.Tree.ExpandEvent;
 import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.Button.ClickEvent;
 import com.vaadin.ui.Button.ClickListener;
@@ -65,6 +65,15 @@ import com.vaadin.ui.Window.Notification;
 @SuppressWarnings("serial")
 public class ReviewTab extends CustomComponent implements ClickListener {
 
+	private static final FieldPath BY_NAME = FieldPath.get("by.n");
+
+	private static final FieldPath BY_ID = FieldPath.get("by._id");
+
+	/**
+	 * how long a comment can be edited or deleted
+	 */
+	private static final long EDIT_MILLIS = 30 * 60 * 1000;
+
 	final ObjectId reviewId;
 
 	private Review r;
@@ -75,15 +84,22 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 
 	private ComponentContainer fileArea;
 
+	private Label statusLabel;
+
+	/**
+	 * the CommentPanels, one for each vote, in order
+	 */
+	private ComponentContainer comments;
+
 	ReviewTab(ObjectId id) {
 		setIcon(new ThemeResource("../runo/icons/16/document-txt.png"));
 
 		reviewId = id;
 
-		reload();
+		build();
 	}
 
-	private void reload() {
+	private void build() {
 		final V7CR v7 = V7CR.getInstance();
 		r = new Review(v7.load("reviews", reviewId));
 		Project p = new Project(v7.load("projects", r.getProjectName()));
@@ -111,13 +127,15 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 			}
 		}
 
+		comments = new VerticalLayout();
 		final BSONBackedObject[] votes = r.getObjectFieldAsArray("v");
 		if (votes != null) {
 			for (BSONBackedObject vote : votes) {
-				vl.addComponent(new CommentPanel(vote));
+				comments.addComponent(new CommentPanel(vote));
 			}
 
 		}
+		vl.addComponent(comments);
 
 		{
 			HorizontalLayout commentGrid = new HorizontalLayout();
@@ -136,19 +154,20 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 			vl.addComponent(commentGrid);
 			fileArea = new VerticalLayout();
 			vl.addComponent(fileArea);
-			MultiFileUpload uploader = new MultiFileUpload() {
+			V7MultiFileUpload uploader = new V7MultiFileUpload() {
 
 				@Override
-				protected void handleFile(File file, String fileName,
+				protected FileStore getFileStore() {
+					return v7.getFileStore();
+				}
+
+				@Override
+				protected void handleFile(String sha, String fileName,
 						String mimeType, long length) {
-					try {
-						BSONBackedObject gf = v7.storeFile(file, fileName,
-								mimeType);
-						TemporaryFile tf = new TemporaryFile(v7, gf);
-						fileArea.addComponent(tf);
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
+					BSONBackedObject gf = v7.storeFile(sha, fileName,
+							mimeType, length);
+					TemporaryFile tf = new TemporaryFile(v7, gf);
+					fileArea.addComponent(tf);
 				}
 			};
 
@@ -160,7 +179,47 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 		}
 
 		setCompositionRoot(vl);
+	}
+
+	/**
+	 * reloads the review, and updates only what has changed: The comment
+	 * panels for new, changed or deleted votes, and the status (in which
+	 * case the ReviewList for the project is also reloaded).
+	 */
+	private void reload() {
+		V7CR v7 = V7CR.getInstance();
+		String oldStatus = r.getStatus();
+		r = new Review(v7.load("reviews", reviewId));
+
+		List<CommentPanel> panels = new ArrayList<CommentPanel>();
+		Iterator<Component> i = comments.getComponentIterator();
+		while (i.hasNext()) {
+			panels.add((CommentPanel) i.next());
+		}
+		BSONBackedObject[] votes = r.getObjectFieldAsArray("v");
+		if (votes == null)
+			votes = new BSONBackedObject[0];
+		for (int j = 0; j < votes.length; j++) {
+			if (j >= panels.size()) {
+				comments.addComponent(new CommentPanel(votes[j]));
+			} else if (!panels.get(j).data.equals(votes[j])) {
+				comments.replaceComponent(panels.get(j), new CommentPanel(
+						votes[j]));
+			} else {
+				panels.get(j).refresh();
+			}
+		}
+		for (int j = votes.length; j < panels.size(); j++) {
+			comments.removeComponent(panels.get(j));
+		}
+
+		if (!StringUtils.equals(oldStatus, r.getStatus())) {
+			statusLabel.setValue(getStatusCaption(v7, r));
+			reloadReviewList();
+		}
+	}
 
+	private void reloadReviewList() {
 		Component parent = getParent();
 		if (parent instanceof TabSheet) {
 			TabSheet t = (TabSheet) parent;
@@ -182,6 +241,13 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 
 		private final BSONBackedObject data;
 
+		/**
+		 * if the edit and delete buttons are shown
+		 */
+		private boolean showsEditButtons;
+
+		private boolean editing;
+
 		CommentPanel(BSONBackedObject vote) {
 			p = new Panel();
 			data = vote;
@@ -189,7 +255,33 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 			makeNotEditable();
 		}
 
+		private long getTimeLeftToEdit() {
+			return data.getDateField("d").getTime() + EDIT_MILLIS
+					- System.currentTimeMillis();
+		}
+
+		/**
+		 * updates the time left to edit, or removes the edit and delete
+		 * buttons once it has run out
+		 */
+		void refresh() {
+			if (editing ? getTimeLeftToEdit() <= 0 : showsEditButtons)
+				makeNotEditable();
+		}
+
+		/**
+		 * @return if the comment can still be changed, otherwise the buttons
+		 *         are removed
+		 */
+		private boolean checkTimeLeft() {
+			if (getTimeLeftToEdit() > 0)
+				return true;
+			makeNotEditable();
+			return false;
+		}
+
 		private void makeNotEditable() {
+			editing = false;
 			final GridLayout grid = new GridLayout(3, 4);
 			grid.setSizeFull();
 			p.setContent(grid);
@@ -197,8 +289,8 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 
 			Date created = data.getDateField("d");
 
-			p.addComponent(new Label(data.getStringField("by.n")));
-			p.addComponent(new Label(data.getStringField("by._id")));
+			p.addComponent(new Label(data.getStringField(BY_NAME)));
+			p.addComponent(new Label(data.getStringField(BY_ID)));
 			p.addComponent(new Label(DateFormat.getDateTimeInstance().format(
 					created)));
 			grid.addComponent(new Label(data.getStringField("c"),
@@ -228,15 +320,16 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 			}
 
 			// the last comment can still be edited for some time
-			long timeLeft = created.getTime() + 30 * 60 * 1000
-					- System.currentTimeMillis();
-			if (timeLeft > 0) {
+			long timeLeft = getTimeLeftToEdit();
+			showsEditButtons = timeLeft > 0;
+			if (showsEditButtons) {
 
 				p.addComponent(new Button(v7.getMessage("button.edit"),
 						new Button.ClickListener() {
 
 							public void buttonClick(ClickEvent event) {
-								makeEditable();
+								if (checkTimeLeft())
+									makeEditable();
 							}
 						}
 
@@ -245,8 +338,9 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 						new Button.ClickListener() {
 
 							public void buttonClick(ClickEvent event) {
-								V7CR v7cr = V7CR.getInstance();
-								v7cr.update("reviews", r.deleteVote(data));
+								if (!checkTimeLeft())
+									return;
+								deleteVote(data);
 								reload();
 							}
 						}));
@@ -259,6 +353,7 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 		}
 
 		private void makeEditable() {
+			editing = true;
 			final GridLayout grid = new GridLayout(3, 4);
 			grid.setSizeFull();
 			p.setContent(grid);
@@ -267,8 +362,8 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 
 			final Date created = data.getDateField("d");
 
-			p.addComponent(new Label(data.getStringField("by.n")));
-			p.addComponent(new Label(data.getStringField("by._id")));
+			p.addComponent(new Label(data.getStringField(BY_NAME)));
+			p.addComponent(new Label(data.getStringField(BY_ID)));
 			p.addComponent(new Label(DateFormat.getDateTimeInstance().format(
 					created)));
 			final TextArea textArea = new TextArea(null, data
@@ -285,10 +380,10 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 					new Button.ClickListener() {
 
 						public void buttonClick(ClickEvent event) {
-							V7CR v7cr = V7CR.getInstance();
-							v7cr.update("reviews", r.updateVote(data, textArea
-									.getValue().toString(), voteOptions
-									.getValue().toString()));
+							if (!checkTimeLeft())
+								return;
+							updateVote(data, textArea.getValue().toString(),
+									voteOptions.getValue().toString());
 							reload();
 
 							//					
@@ -313,8 +408,9 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 					new Button.ClickListener() {
 
 						public void buttonClick(ClickEvent event) {
-							V7CR v7cr = V7CR.getInstance();
-							v7cr.update("reviews", r.deleteVote(data));
+							if (!checkTimeLeft())
+								return;
+							deleteVote(data);
 							reload();
 
 						}
@@ -334,10 +430,8 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 		Locale l = v7.getLocale();
 		SchemaDefinition sd = r.getSchemaDefinition();
 		grid.addComponent(new Label(sd.getFieldCaption("s", l)), 0, 0, 1, 0);
-		p.addComponent(new Label("<b>"
-				+ LocalizedString.get(sd.getFieldDefinition("s")
-						.getPossibleValueMetaData(r.getStatus()), "caption", l)
-				+ "</b>", Label.CONTENT_XHTML));
+		statusLabel = new Label(getStatusCaption(v7, r), Label.CONTENT_XHTML);
+		p.addComponent(statusLabel);
 		p.addComponent(new Label(sd.getFieldCaption("p", l)));
 		p.addComponent(new Label("[" + proj.getId() + "]"));
 		grid.addComponent(new Label(proj.getName()));
@@ -355,6 +449,14 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 
 	}
 
+	private String getStatusCaption(V7CR v7, Review r) {
+		return "<b>"
+				+ LocalizedString.get(r.getSchemaDefinition()
+						.getFieldDefinition("s").getPossibleValueMetaData(
+								r.getStatus()), "caption", v7.getLocale())
+				+ "</b>";
+	}
+
 	private Panel getNotesPanel(BSONBackedObject note) {
 		Panel p = new Panel(note.getStringField("t"));
 		p.setWidth("600px");
@@ -398,17 +500,29 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 		Map<String, SVNLogEntryPath> changed = svn.getChangedPaths();
 
 		if (changed != null) {
-			Tree changeTree = new Tree(sd.getFieldCaption("svn.changed", l)
+			final Tree changeTree = new Tree(sd.getFieldCaption(
+					"svn.changed", l)
 					+ "(" + changed.size() + ")");
-			Set<String> paths = changed.keySet();
-			for (String s : changed.keySet()) {
-				changeTree.addItem(s);
-				changeTree.setChildrenAllowed(s, false);
-				changeTree
-						.setItemCaption(s, changed.get(s).getType() + " " + s);
-			}
-			if (paths.size() > 5) {
-				compressTree(changeTree, paths);
+			if (changed.size() > 5) {
+				// directories are only filled in when they are expanded
+				addChangeTreeNodes(changeTree, null, new ChangeTree(changed
+						.values()).getRoots());
+				changeTree.addListener(new Tree.ExpandListener() {
+
+					public void nodeExpand(ExpandEvent event) {
+						ChangeTree.Node n = (ChangeTree.Node) event
+								.getItemId();
+						if (!changeTree.hasChildren(n))
+							addChangeTreeNodes(changeTree, n, n.getChildren());
+					}
+				});
+			} else {
+				for (String s : changed.keySet()) {
+					changeTree.addItem(s);
+					changeTree.setChildrenAllowed(s, false);
+					changeTree.setItemCaption(s, changed.get(s).getType()
+							+ " " + s);
+				}
 			}
 
 			grid.addComponent(changeTree, 0, 2, 3, 2);
@@ -416,85 +530,17 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 		return p;
 	}
 
-	private String connectPath(Tree tree, String node) {
-		tree.addItem(node);
-		tree.setChildrenAllowed(node, true);
-		String pp = StringUtils.substringBeforeLast(StringUtils
-				.substringBeforeLast(node, "/"), "/")
-				+ "/";
-		while (true) {
-			if (tree.containsId(pp)) {
-				tree.setParent(node, pp);
-				return pp;
-			}
-			pp = StringUtils.substringBeforeLast(StringUtils
-					.substringBeforeLast(pp, "/"), "/")
-					+ "/";
-			if ("/".equals(pp))
-				return pp;
+	private void addChangeTreeNodes(Tree tree, ChangeTree.Node parent,
+			Collection<ChangeTree.Node> nodes) {
+		for (ChangeTree.Node n : nodes) {
+			tree.addItem(n);
+			tree.setItemCaption(n, n.getCaption());
+			if (parent != null)
+				tree.setParent(n, parent);
+			tree.setChildrenAllowed(n, n.hasChildren());
 		}
 	}
 
-	// introduce intermediate nodes (for common prefixes) to make the tree more
-	// even
-	private void compressTree(Tree tree, Collection<String> nodes) {
-
-		List<String> orgPaths = new ArrayList<String>(nodes);
-
-		int end = orgPaths.size();
-
-		for (int start = 0; start < end; start++) {
-			String prefix = StringUtils.getCommonPrefix(orgPaths.subList(start,
-					end).toArray(EMPTY_STRING_ARRAY));
-			if (!prefix.endsWith("/")) {
-				prefix = StringUtils.substringBeforeLast(prefix, "/") + "/";
-			}
-			String first = orgPaths.get(start);
-			String extendedPrefix = prefix
-					+ StringUtils.substringBefore(first.substring(prefix
-							.length()), "/");
-			if (!extendedPrefix.equals(first)) {
-				extendedPrefix += "/";
-				if (tree.containsId(prefix)) {
-					tree.addItem(extendedPrefix);
-					tree.setParent(extendedPrefix, prefix);
-				} else {
-					tree.setParent(extendedPrefix, connectPath(tree,
-							extendedPrefix));
-				}
-				tree.setChildrenAllowed(extendedPrefix, true);
-				int last;
-				for (last = start; last < end; last++) {
-					String l = orgPaths.get(last);
-					if (l.startsWith(extendedPrefix)) {
-						tree.setParent(l, extendedPrefix);
-					} else {
-						last++;
-						break;
-					}
-				}
-				tree.setItemCaption(extendedPrefix, extendedPrefix + "("
-						+ (last - 1 - start) + ")");
-
-				if (last - start > 5) {
-					compressTree(tree, orgPaths.subList(start, last - 1));
-				}
-				start = last - 1;
-
-			} else {
-				if (!tree.containsId(prefix)) {
-					prefix = connectPath(tree, prefix);
-				}
-
-				if (!prefix.equals(first)) {
-					tree.setParent(first, prefix);
-				}
-
-			}
-		}
-
-	}
-
 	public void buttonClick(ClickEvent event) {
 		String comment = (String) newComment.getValue();
 		String vote = (String) voteOptions.getValue();
@@ -510,10 +556,47 @@ public class ReviewTab extends CustomComponent implements ClickListener {
 			return;
 		}
 
+		addVote(comment, vote);
+		newComment.setValue("");
+		voteOptions.setValue("0");
+		fileArea.removeAllComponents();
+		reload();
+	}
+
+	// votes are applied to the current version of the review (not the one
+	// that is displayed), so that concurrent votes do not get lost
+
+	private void addVote(String comment, String vote) {
 		V7CR v7cr = V7CR.getInstance();
-		v7cr.update("reviews", r.addVote(v7cr.getSessionUser(), new Date(),
-				comment, vote, fileArea));
+		final BSONObject v = Review.createVote(v7cr.getSessionUser(),
+				new Date(), comment, vote, fileArea);
+		if (Review.pushVote(v7cr.getDBCollection("reviews"), reviewId, v))
+			return;
+		// older review without vote counters
+		v7cr.update("reviews", reviewId, new Versioning.Modification() {
+			public BSONBackedObject apply(BSONBackedObject current) {
+				return new Review(current).addVote(v);
+			}
+		});
+	}
 
-		reload();
+	private void updateVote(final BSONBackedObject data,
+			final String newMessage, final String rating) {
+		V7CR.getInstance().update("reviews", reviewId,
+				new Versioning.Modification() {
+					public BSONBackedObject apply(BSONBackedObject current) {
+						return new Review(current).updateVote(data,
+								newMessage, rating);
+					}
+				});
+	}
+
+	private void deleteVote(final BSONBackedObject data) {
+		V7CR.getInstance().update("reviews", reviewId,
+				new Versioning.Modification() {
+					public BSONBackedObject apply(BSONBackedObject current) {
+						return new Review(current).deleteVote(data);
+					}
+				});
 	}
 }
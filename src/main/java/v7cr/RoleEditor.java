@@ -149,6 +149,7 @@ class RoleEditor extends CustomComponent implements ItemClickListener,
 		}
 		o.put("member", members);
 		db.save(o);
+		Roles.invalidate(db);
 
 	}
 
@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+import org.bson.BSONObject;
+import org.tmatesoft.svn.core.SVNCancelException;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+
+import v7cr.v7db.AccountInfo;
+import v7cr.v7db.BSONBackedObjectLoader;
+import v7cr.v7db.BatchInserter;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * Imports new SVN revisions as reviews, for all projects that have a
+ * repository.
+ *
+ * Every few minutes, an import is started for each project (unless the
+ * previous one for that project is still running) on a fixed-size thread
+ * pool. An import fetches the log from the last imported revision up to HEAD
+ * in batches, and passes it through an ImportPipeline, which converts the
+ * entries and inserts the reviews through a BatchInserter on separate
+ * threads. After each batch has been written, the last imported revision is
+ * recorded in the "imports" collection.
+ */
+
+class SVNImporter {
+
+	private static final Logger log = Logger.getLogger(SVNImporter.class
+			.getName());
+
+	/**
+	 * how many log entries are fetched (and inserted) at once
+	 */
+	static final int BATCH_SIZE = 1000;
+
+	/**
+	 * how many reviews are inserted at once
+	 */
+	private static final int INSERT_BATCH_SIZE = 200;
+
+	private static final long INSERT_DELAY_MILLIS = 5000;
+
+	private static final int THREADS = 4;
+
+	private static final long INTERVAL_SECONDS = 300;
+
+	private final DB db;
+
+	private final ConcurrentMap<String, Boolean> running = new ConcurrentHashMap<String, Boolean>();
+
+	private ScheduledExecutorService scheduler;
+
+	private ExecutorService workers;
+
+	SVNImporter(DB db) {
+		this.db = db;
+	}
+
+	synchronized void start() {
+		if (scheduler != null)
+			return;
+		DAVRepositoryFactory.setup();
+		workers = Executors.newFixedThreadPool(THREADS);
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					importAll();
+				} catch (Exception e) {
+					log.log(Level.WARNING, "failed to start SVN imports", e);
+				}
+			}
+		}, 10, INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	synchronized void stop() {
+		if (scheduler == null)
+			return;
+		scheduler.shutdownNow();
+		workers.shutdownNow();
+		try {
+			if (!workers.awaitTermination(10, TimeUnit.SECONDS))
+				log.warning("SVN imports are still running");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		scheduler = null;
+		workers = null;
+	}
+
+	/**
+	 * starts an import for every project that has a repository, and that is
+	 * not already being imported
+	 */
+	void importAll() {
+		DBCursor projects = db.getCollection("projects").find(
+				new BasicDBObject("repo", new BasicDBObject("$exists", true)));
+		for (DBObject p : projects) {
+			final Project project = new Project(BSONBackedObjectLoader.wrap(p,
+					null));
+			final String id = project.getId();
+			if (running.putIfAbsent(id, Boolean.TRUE) != null)
+				continue;
+			try {
+				workers.execute(new Runnable() {
+					public void run() {
+						try {
+							importProject(project);
+						} catch (Exception e) {
+							log.log(Level.WARNING, "failed to import "
+									+ project.getRepositoryUrl() + " for "
+									+ id, e);
+						} finally {
+							running.remove(id);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// shutting down
+				running.remove(id);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * imports all revisions after the last imported one
+	 *
+	 * @return the number of revisions read from the log
+	 */
+	int importProject(Project project) throws SVNException {
+		String projectId = project.getId();
+		long lastRev = getLastImportedRevision(projectId);
+		SVNURL url = SVNURL.parseURIDecoded(project.getRepositoryUrl());
+		SVNClientManager svn = SVNClientManager.newInstance();
+		// svn.setAuthenticationManager(new BasicAuthenticationManager("name",
+		// "password"));
+		BatchInserter inserter = new BatchInserter(db.getCollection("reviews"),
+				INSERT_BATCH_SIZE, INSERT_DELAY_MILLIS,
+				new BatchInserter.DuplicateHandler() {
+
+					public void duplicate(DBObject review,
+							MongoException.DuplicateKey e) {
+						// imported after the last checkpoint
+						log.fine("skipped " + review.get("svn")
+								+ ", already imported");
+					}
+				});
+		ImportPipeline pipeline = new ImportPipeline(this, projectId, inserter);
+		long start = System.currentTimeMillis();
+		boolean finished = false;
+		pipeline.start();
+		try {
+			long head = svn.createRepository(url, true).getLatestRevision();
+			while (lastRev < head && !Thread.currentThread().isInterrupted()) {
+				try {
+					svn.getLogClient().doLog(url, null,
+							SVNRevision.create(head),
+							SVNRevision.create(lastRev + 1),
+							SVNRevision.create(head), true, true, BATCH_SIZE,
+							pipeline);
+				} catch (SVNCancelException e) {
+					pipeline.checkFailure();
+					throw e;
+				}
+				if (pipeline.getLastFetchedRevision() <= lastRev)
+					break;
+				lastRev = pipeline.getLastFetchedRevision();
+				pipeline.checkpoint(lastRev);
+			}
+			pipeline.finish();
+			finished = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (!finished)
+				pipeline.abort();
+			svn.dispose();
+		}
+		int count = (int) (inserter.getInsertedCount() + inserter
+				.getDuplicateCount());
+		if (count > 0)
+			log.info("imported " + count + " revisions for " + projectId
+					+ " up to " + lastRev + " in "
+					+ (System.currentTimeMillis() - start) + "ms ("
+					+ pipeline + ")");
+		return count;
+	}
+
+	static DBObject toReview(String projectId, SVNLogEntry logEntry) {
+		String title = StringUtils.defaultString(logEntry.getMessage());
+		if (title.contains("\n")) {
+			title = title.substring(0, title.indexOf('\n'));
+		}
+		if (title.length() > 80) {
+			title = StringUtils.abbreviate(title, 80);
+		}
+		Review r = new Review(projectId, title);
+		BasicDBObject b = new BasicDBObject(r.getBSONObject());
+		b.put("reviewee", new AccountInfo(logEntry.getAuthor(), logEntry
+				.getAuthor()).getBSONObject());
+		b.put("svn", Review.toBSON(logEntry));
+		b.put("c", logEntry.getDate());
+		return b;
+	}
+
+	long getLastImportedRevision(String projectId) {
+		DBObject checkpoint = db.getCollection("imports").findOne(projectId);
+		if (checkpoint != null)
+			return ((Number) checkpoint.get("rev")).longValue();
+		// no checkpoint yet, look at the reviews
+		DBCursor latest = db.getCollection("reviews").find(
+				new BasicDBObject("p", projectId),
+				new BasicDBObject("svn.rev", 1)).sort(
+				new BasicDBObject("svn.rev", -1)).limit(1);
+		if (!latest.hasNext())
+			return 0;
+		BSONObject svn = (BSONObject) latest.next().get("svn");
+		if (svn == null)
+			return 0;
+		return ((Number) svn.get("rev")).longValue();
+	}
+
+	void setLastImportedRevision(String projectId, long rev) {
+		db.getCollection("imports").update(new BasicDBObject("_id", projectId),
+				new BasicDBObject("$set", new BasicDBObject("rev", rev)), true,
+				false);
+	}
+}
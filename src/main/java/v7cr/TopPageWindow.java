@@ -17,9 +17,7 @@
 
 package v7cr;
 
-import java.util.Map;
-
-import v7cr.v7db.Role;
+import v7cr.v7db.Permissions;
 
 import com.vaadin.Application;
 import com.vaadin.terminal.gwt.server.WebApplicationContext;
@@ -50,17 +48,14 @@ class TopPageWindow extends Window {
 		vl.addComponent(main);
 		vl.setExpandRatio(main, 1);
 
-		Map<String, Role> roles = app.getRoles();
-		if (roles.containsKey("admin")) {
+		Permissions permissions = app.getPermissions();
+		if (permissions.hasRole("admin")) {
 			main.addTab(new RoleEditor(app));
 			main.addTab(new UserEditor(app));
 			main.addTab(new ProjectEditor(app));
 		}
-		for (String r : roles.keySet()) {
-			if (r.startsWith("project:")) {
-				String p = r.substring(8);
-				main.addTab(new ReviewList(p));
-			}
+		for (String p : permissions.getProjects()) {
+			main.addTab(new ReviewList(p));
 		}
 		addComponent(vl);
 	}
@@ -19,6 +19,7 @@ package v7cr;
 
 import v7cr.v7db.AccountInfo;
 import v7cr.v7db.Role;
+import v7cr.v7db.Roles;
 
 import com.vaadin.data.Validator.InvalidValueException;
 import com.vaadin.data.validator.EmailValidator;
@@ -72,6 +73,7 @@ class UserEditor extends CustomComponent implements ClickListener {
 			Role connect = new Role(v7cr.load("roles", "connect"));
 			connect = connect.addMember(ac);
 			v7cr.update("roles", connect);
+			Roles.invalidate(v7cr.getDBCollection("roles"));
 		} catch (InvalidValueException e) {
 			e.printStackTrace();
 		}
@@ -17,26 +17,20 @@
 
 package v7cr;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.ResourceBundle;
 
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.FileEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.bson.BSONObject;
 import org.bson.BasicBSONObject;
 import org.bson.types.ObjectId;
@@ -44,7 +38,8 @@ import org.bson.types.ObjectId;
 import v7cr.v7db.AccountInfo;
 import v7cr.v7db.BSONBackedObject;
 import v7cr.v7db.BSONBackedObjectLoader;
-import v7cr.v7db.Role;
+import v7cr.v7db.FileStore;
+import v7cr.v7db.Permissions;
 import v7cr.v7db.SessionInfo;
 import v7cr.v7db.Versioning;
 
@@ -107,14 +102,17 @@ public class V7CR extends Application implements HttpServletRequestListener {
 		return sessionInfo.accountInfo;
 	}
 
-	Map<String, Role> getRoles() {
-		return sessionInfo.roles;
+	Permissions getPermissions() {
+		return sessionInfo.permissions;
 	}
 
-	DBCollection getDBCollection(String name) {
+	private ServletContext getServletContext() {
 		WebApplicationContext context = (WebApplicationContext) getContext();
-		return InitDB.getDBCollection(context.getHttpSession()
-				.getServletContext(), name);
+		return context.getHttpSession().getServletContext();
+	}
+
+	DBCollection getDBCollection(String name) {
+		return InitDB.getDBCollection(getServletContext(), name);
 	}
 
 	BSONBackedObject load(String collection, Object id) {
@@ -143,6 +141,24 @@ public class V7CR extends Application implements HttpServletRequestListener {
 				.getVersion(object), object.getDBObject());
 	}
 
+	/**
+	 * updates only the fields that differ between base and object
+	 */
+	WriteResult update(String collection, BSONBackedObject base,
+			BSONBackedObject object) {
+		return Versioning.update(getDBCollection(collection), base, object);
+	}
+
+	/**
+	 * applies the modification to the current version of the object,
+	 * retrying if it is updated concurrently
+	 */
+	BSONBackedObject update(String collection, Object id,
+			Versioning.Modification modification) {
+		return Versioning.update(getDBCollection(collection), id,
+				modification);
+	}
+
 	WriteResult update(String collection, DBObject object) {
 		return Versioning.update(getDBCollection(collection), Versioning
 				.getVersion(object), object);
@@ -157,22 +173,19 @@ public class V7CR extends Application implements HttpServletRequestListener {
 		return Versioning.insert(getDBCollection(collection), object);
 	}
 
-	BSONBackedObject storeFile(File file, String fileName, String mimeType)
-			throws IOException {
-		HttpClient http = new DefaultHttpClient();
-		HttpPut put = new HttpPut("http://0.0.0.0:8088/upload/v7cr");
-		put.setEntity(new FileEntity(file, mimeType));
-		HttpResponse response = http.execute(put);
-		if (response.getStatusLine().getStatusCode() != 200) {
-			throw new IOException("failed to save " + fileName + ": "
-					+ response.getStatusLine());
-		}
+	FileStore getFileStore() {
+		return InitDB.getFileStore(getServletContext());
+	}
 
-		String sha = IOUtils.toString(response.getEntity().getContent());
+	/**
+	 * records a file that is already in the FileStore
+	 */
+	BSONBackedObject storeFile(String sha, String fileName, String mimeType,
+			long length) {
 		BSONObject r = new BasicBSONObject("sha", sha);
 		r.put("filename", fileName);
 		r.put("contentType", mimeType);
-		r.put("length", file.length());
+		r.put("length", length);
 		return BSONBackedObjectLoader.wrap(r, null);
 	}
 
@@ -182,10 +195,14 @@ public class V7CR extends Application implements HttpServletRequestListener {
 		if (fn == null || sha == null)
 			return null;
 
-		URL url = getURL();
-		return new Link(fn, new ExternalResource(url.getProtocol() + "://"
-				+ url.getHost() + ":8088/upload/v7cr?filename=" + fn + "&sha="
-				+ sha));
+		try {
+			// the application URL is .../v/, the FileServlet is at .../file/
+			URL url = new URL(getURL(), "../file/" + sha + "/"
+					+ URLEncoder.encode(fn, "UTF-8").replace("+", "%20"));
+			return new Link(fn, new ExternalResource(url));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	@Override
@@ -203,7 +220,7 @@ public class V7CR extends Application implements HttpServletRequestListener {
 						pjt_rev[pjt_rev.length - 1] };
 			}
 			// check permission to access the project
-			if (!getRoles().containsKey("project:" + pjt_rev[0])) {
+			if (!getPermissions().canAccessProject(pjt_rev[0])) {
 				throw new SecurityException(
 						"permission denied to access project " + pjt_rev[0]);
 			}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2011-2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * An immutable List that can be extended at the end without copying.
+ * 
+ * <p>
+ * All lists created by appending to each other share the same backing array.
+ * Only the first list to append to a given version can use the free space
+ * after it, for all others (and when the array is full) the elements are
+ * copied. So a chain of pushes onto the same array field takes amortized
+ * constant time, and the old versions remain unchanged.
+ * 
+ * <p>
+ * Used by BSONBackedObject to store the arrays it builds.
+ */
+
+@SuppressWarnings("serial")
+final class AppendOnlyList extends AbstractList<Object> implements
+		RandomAccess, Serializable {
+
+	private static final class Buffer implements Serializable {
+
+		private Object[] elements;
+
+		/** number of elements in use by any list on this buffer */
+		private int used;
+
+		Buffer(int capacity) {
+			elements = new Object[Math.max(capacity, 4)];
+		}
+	}
+
+	private final Buffer buffer;
+
+	private final int size;
+
+	private AppendOnlyList(Buffer buffer, int size) {
+		this.buffer = buffer;
+		this.size = size;
+	}
+
+	static AppendOnlyList copyOf(Collection<?> values) {
+		Buffer b = new Buffer(values.size() + values.size() / 2);
+		for (Object o : values) {
+			b.elements[b.used++] = o;
+		}
+		return new AppendOnlyList(b, b.used);
+	}
+
+	@Override
+	public Object get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size);
+		return buffer.elements[index];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return a list with the values appended, this list remains unchanged
+	 */
+	AppendOnlyList plus(Object... values) {
+		synchronized (buffer) {
+			int newSize = size + values.length;
+			if (buffer.used == size && newSize <= buffer.elements.length) {
+				// nobody has appended to us yet, so the space is ours
+				System.arraycopy(values, 0, buffer.elements, size,
+						values.length);
+				buffer.used = newSize;
+				return new AppendOnlyList(buffer, newSize);
+			}
+			Buffer b = new Buffer(newSize + newSize / 2);
+			System.arraycopy(buffer.elements, 0, b.elements, 0, size);
+			System.arraycopy(values, 0, b.elements, size, values.length);
+			b.used = newSize;
+			return new AppendOnlyList(b, newSize);
+		}
+	}
+
+	/**
+	 * @return a list without the last element, sharing the backing array
+	 */
+	AppendOnlyList withoutLast() {
+		return new AppendOnlyList(buffer, size - 1);
+	}
+
+}
@@ -17,8 +17,8 @@
 
 package v7cr.v7db;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -26,7 +26,6 @@ import java.util.Set;
 import java.util.TreeSet;
 
 import org.apache.commons.lang.ArrayUtils;
-import org.bson.BSON;
 import org.bson.BSONObject;
 import org.bson.BasicBSONObject;
 import org.bson.types.ObjectId;
@@ -42,7 +41,9 @@ import com.mongodb.DBObject;
  * 
  * It also provides a selection of useful accessor and mutator methods,
  * including support for nested fields. Since the object is immutable, the
- * mutator methods return a modified copy.
+ * mutator methods return a modified copy. That copy only copies the objects on
+ * the path to the modified field, everything else is shared with the original,
+ * and arrays are extended in place where possible (see AppendOnlyList).
  * 
  * 
  */
@@ -74,44 +75,34 @@ public class BSONBackedObject {
 		this.schema = schema;
 	}
 
-	public boolean isEmpty() {
-		return bson.keySet().isEmpty();
+	/**
+	 * the underlying BSON data, without copying. It is shared with other
+	 * instances, so callers within this package must not modify it.
+	 */
+	BasicBSONObject getBSON() {
+		return bson;
 	}
 
-	// for nested fields
-	// returns { parentObject, localFieldName }
-
-	private static Object[] drillDownToParent(Map<?, ?> data, String field) {
-		if (field == null) {
-			return null;
-		}
-		int idx = field.indexOf('.');
-		if (idx == -1) {
-			return new Object[] { data, field };
-		}
-		String head = field.substring(0, idx);
-		String tail = field.substring(idx + 1);
-		Object o = data.get(head);
-		if (o instanceof Map<?, ?>) {
-			return drillDownToParent((Map<?, ?>) o, tail);
-		}
-		return null;
+	public boolean isEmpty() {
+		return bson.keySet().isEmpty();
 	}
 
 	// for nested fields
 	private Object drillDown(String field) {
-		Object[] d = drillDownToParent(bson, field);
-		if (d == null)
+		if (field == null)
 			return null;
-		return ((Map<?, ?>) d[0]).get(d[1]);
+		return FieldPath.lookup(field).resolve(bson);
 	}
 
 	public boolean containsField(String field) {
-		Object[] d = drillDownToParent(bson, field);
-		if (d == null)
-			return false;
+		return containsField(FieldPath.lookup(field));
+	}
 
-		return ((Map<?, ?>) d[0]).containsKey(field);
+	public boolean containsField(FieldPath field) {
+		Map<?, ?> parent = field.resolveParent(bson);
+		if (parent == null)
+			return false;
+		return parent.containsKey(field.getLastSegment());
 	}
 
 	public Set<String> getFieldNames() {
@@ -122,6 +113,10 @@ public class BSONBackedObject {
 		return (String) getField(field);
 	}
 
+	public String getStringField(FieldPath field) {
+		return (String) getField(field);
+	}
+
 	/**
 	 * for a String field that can contain multiple values (cardinality > 1),
 	 * return all of them as an array. An empty array will be returned as null.
@@ -161,6 +156,10 @@ public class BSONBackedObject {
 		return (Date) getField(field);
 	}
 
+	public Date getDateField(FieldPath field) {
+		return (Date) getField(field);
+	}
+
 	public Boolean getBooleanField(String field) {
 		return (Boolean) getField(field);
 	}
@@ -183,7 +182,16 @@ public class BSONBackedObject {
 	 * 
 	 */
 	public Object getField(String field) {
-		Object o = drillDown(field);
+		if (field == null)
+			return null;
+		return getField(FieldPath.lookup(field));
+	}
+
+	/**
+	 * same as getField(String), for an already split field name
+	 */
+	public Object getField(FieldPath field) {
+		Object o = field.resolve(bson);
 		if (o == null)
 			return null;
 		if (o instanceof String || o instanceof Boolean || o instanceof Long
@@ -246,7 +254,7 @@ public class BSONBackedObject {
 	 * @return a copy of the underlying BSON data
 	 */
 	public BasicBSONObject getBSONObject() {
-		return (BasicBSONObject) BSON.decode(BSON.encode(bson));
+		return BSONBackedObjectLoader.copy(bson);
 	}
 
 	/**
@@ -257,7 +265,13 @@ public class BSONBackedObject {
 	}
 
 	public BSONBackedObject getObjectField(String fieldName) {
-		Object o = drillDown(fieldName);
+		if (fieldName == null)
+			return null;
+		return getObjectField(FieldPath.lookup(fieldName));
+	}
+
+	public BSONBackedObject getObjectField(FieldPath fieldName) {
+		Object o = fieldName.resolve(bson);
 		if (o == null)
 			return null;
 		if (o instanceof BasicBSONObject) {
@@ -271,7 +285,17 @@ public class BSONBackedObject {
 	 * all of them as an array. An empty array will be returned as null.
 	 */
 	public BSONBackedObject[] getObjectFieldAsArray(String field) {
-		Object o = drillDown(field);
+		if (field == null)
+			return null;
+		return getObjectFieldAsArray(FieldPath.lookup(field));
+	}
+
+	/**
+	 * for a field that can contain multiple values (cardinality > 1), return
+	 * all of them as an array. An empty array will be returned as null.
+	 */
+	public BSONBackedObject[] getObjectFieldAsArray(FieldPath field) {
+		Object o = field.resolve(bson);
 		if (o == null)
 			return null;
 		if (o instanceof Object[]) {
@@ -320,40 +344,27 @@ public class BSONBackedObject {
 	}
 
 	// for nested fields
+	// copies the objects along the path (creating missing ones)
 	// returns { root, parent }
-	private static BasicBSONObject[] createPath(Map<?, ?> data, String field) {
-		if (field == null)
-			return null;
-		int idx = field.indexOf('.');
-		if (idx == -1) {
+	private static BasicBSONObject[] createPath(Map<?, ?> data,
+			FieldPath field) {
+		BasicBSONObject root = new BasicBSONObject();
+		root.putAll((BSONObject) data);
+		BasicBSONObject parent = root;
+		for (int i = 0; i < field.length() - 1; i++) {
+			String head = field.getSegment(i);
+			Object x = parent.get(head);
 			BasicBSONObject copy = new BasicBSONObject();
-			copy.putAll((BSONObject) data);
-			return new BasicBSONObject[] { copy, copy };
-		}
-		String head = field.substring(0, idx);
-		String tail = field.substring(idx + 1);
-		Object x = data.get(head);
-		if (x instanceof Map<?, ?>) {
-			BasicBSONObject copy = new BasicBSONObject();
-			copy.putAll((BSONObject) data);
-			try {
-				BasicBSONObject[] r = createPath((Map<?, ?>) x, tail);
-				copy.put(head, r[0]);
-				return new BasicBSONObject[] { copy, r[1] };
-
-			} catch (UnsupportedOperationException e) {
+			if (x instanceof Map<?, ?>) {
+				copy.putAll((BSONObject) x);
+			} else if (x != null) {
 				throw new UnsupportedOperationException(field
-						+ " is not a valid path", e);
+						+ " is not a valid path");
 			}
+			parent.put(head, copy);
+			parent = copy;
 		}
-		if (x == null) {
-			BasicBSONObject copy = new BasicBSONObject();
-			copy.putAll((BSONObject) data);
-			BasicBSONObject vivi = new BasicBSONObject();
-			copy.put(head, vivi);
-			return new BasicBSONObject[] { copy, vivi };
-		}
-		throw new UnsupportedOperationException(field + " is not a valid path");
+		return new BasicBSONObject[] { root, parent };
 	}
 
 	private BSONBackedObject _append(String key, Object value) {
@@ -364,14 +375,13 @@ public class BSONBackedObject {
 		if (value instanceof Object[] && ((Object[]) value).length == 0)
 			return unset(key);
 
-		BasicBSONObject[] path = createPath(bson, key);
-		if (path == null)
+		if (key == null)
 			throw new UnsupportedOperationException(key
 					+ " is not a valid path");
 
-		int idx = key.lastIndexOf('.');
-		String localKey = idx == -1 ? key : key.substring(idx + 1);
-		path[1].put(localKey, value);
+		FieldPath field = FieldPath.lookup(key);
+		BasicBSONObject[] path = createPath(bson, field);
+		path[1].put(field.getLastSegment(), value);
 		return new BSONBackedObject(path[0], schema);
 	}
 
@@ -397,29 +407,30 @@ public class BSONBackedObject {
 		return _append(key, value.bson);
 	}
 
-	private List<Object> getList(String key) {
+	/**
+	 * @return a copy with the given _version, for Versioning
+	 */
+	BSONBackedObject withVersion(int version) {
+		return _append(Versioning.VERSION, version);
+	}
+
+	// arrays that we built ourselves can be extended without copying
+	private AppendOnlyList getList(String key) {
 		Object o = drillDown(key);
+		if (o instanceof AppendOnlyList)
+			return (AppendOnlyList) o;
 		if (o == null)
-			return new ArrayList<Object>();
+			return AppendOnlyList.copyOf(Collections.emptyList());
 		if (o instanceof List<?>)
-			return new ArrayList<Object>((List<?>) o);
+			return AppendOnlyList.copyOf((List<?>) o);
 		if (o instanceof Object[]) {
-			return new ArrayList<Object>(Arrays.asList((Object[]) o));
+			return AppendOnlyList.copyOf(Arrays.asList((Object[]) o));
 		}
-		List<Object> l = new ArrayList<Object>();
-		l.add(o);
-		return l;
+		return AppendOnlyList.copyOf(Collections.singletonList(o));
 	}
 
 	private BSONBackedObject _push(String key, Object value) {
-		List<Object> l = getList(key);
-		if (l == null) {
-			createPath(bson, key);
-			l = new ArrayList<Object>(1);
-		}
-		l.add(value);
-		return _append(key, l);
-
+		return _append(key, getList(key).plus(value));
 	}
 
 	/**
@@ -455,15 +466,7 @@ public class BSONBackedObject {
 	}
 
 	private BSONBackedObject _pushAll(String key, Object... values) {
-		List<Object> l = getList(key);
-		if (l == null) {
-			createPath(bson, key);
-			l = new ArrayList<Object>(values.length);
-		}
-		for (Object o : values)
-			l.add(o);
-		return _append(key, l);
-
+		return _append(key, getList(key).plus(values));
 	}
 
 	/**
@@ -516,11 +519,10 @@ public class BSONBackedObject {
 	 */
 
 	public BSONBackedObject addToSet(String key, String value) {
-		List<Object> l = getList(key);
+		AppendOnlyList l = getList(key);
 		if (l.contains(value))
 			return this;
-		l.add(value);
-		return _append(key, l);
+		return _append(key, l.plus(value));
 	}
 
 	/**
@@ -537,11 +539,10 @@ public class BSONBackedObject {
 	 */
 
 	public BSONBackedObject addToSet(String key, BSONBackedObject value) {
-		List<Object> l = getList(key);
+		AppendOnlyList l = getList(key);
 		if (l.contains(value.bson))
 			return this;
-		l.add(value.bson);
-		return _append(key, l);
+		return _append(key, l.plus(value.bson));
 	}
 
 	/**
@@ -566,11 +567,10 @@ public class BSONBackedObject {
 
 		if (keys.length == 1) {
 			String k = keys[0];
-			List<Object> l = getList(k);
+			AppendOnlyList l = getList(k);
 			if (l.isEmpty())
 				return this;
-			l.remove(l.size() - 1);
-			return _append(k, l);
+			return _append(k, l.withoutLast());
 		}
 
 		String[] head = Arrays.copyOf(keys, keys.length - 1);
@@ -595,19 +595,14 @@ public class BSONBackedObject {
 		// in a tighter fashion
 
 		if (keys.length == 1) {
-			String field = keys[0];
-			Object[] d = drillDownToParent(bson, field);
-			if (d == null)
+			if (keys[0] == null)
+				return this;
+			FieldPath field = FieldPath.lookup(keys[0]);
+			if (field.resolveParent(bson) == null)
 				return this;
-
-			String localKey = (String) d[1];
 
 			BasicBSONObject[] path = createPath(bson, field);
-			if (path == null)
-				throw new UnsupportedOperationException(field
-						+ " is not a valid path");
-
-			path[1].removeField(localKey);
+			path[1].removeField(field.getLastSegment());
 			return new BSONBackedObject(path[0], schema);
 		}
 
@@ -17,9 +17,15 @@
 
 package v7cr.v7db;
 
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
 import org.bson.BSON;
 import org.bson.BSONObject;
 import org.bson.BasicBSONObject;
+import org.bson.types.BasicBSONList;
+import org.bson.types.ObjectId;
 
 import com.mongodb.DBCollection;
 import com.mongodb.util.JSON;
@@ -41,8 +47,66 @@ public class BSONBackedObjectLoader {
 	 * wraps around a given BSONObject, but makes a defensive copy first
 	 */
 	public static BSONBackedObject wrap(BSONObject o, SchemaDefinition schema) {
-		// TODO: cheaper cloning in Java-land
-		return decode(BSON.encode(o), schema);
+		return new BSONBackedObject(copy(o), schema);
+	}
+
+	/**
+	 * makes a deep copy, with the same result as encoding to BSON and decoding
+	 * again (objects become BasicBSONObjects, lists and arrays become
+	 * BasicBSONLists), but without the serialization for the common types
+	 */
+	static BasicBSONObject copy(BSONObject o) {
+		BasicBSONObject c = new BasicBSONObject();
+		// the encoder puts the _id first
+		if (o.containsField("_id"))
+			c.put("_id", copyValue(o.get("_id")));
+		for (String k : o.keySet()) {
+			if (!"_id".equals(k))
+				c.put(k, copyValue(o.get(k)));
+		}
+		return c;
+	}
+
+	private static Object copyValue(Object o) {
+		if (o == null || o instanceof String || o instanceof Integer
+				|| o instanceof Long || o instanceof Double
+				|| o instanceof Boolean || o instanceof ObjectId)
+			return o;
+		if (o instanceof Date)
+			return new Date(((Date) o).getTime());
+		if (o instanceof List<?>) {
+			List<?> l = (List<?>) o;
+			BasicBSONList c = new BasicBSONList();
+			for (Object x : l)
+				c.add(copyValue(x));
+			return c;
+		}
+		if (o instanceof Object[]) {
+			Object[] a = (Object[]) o;
+			BasicBSONList c = new BasicBSONList();
+			for (Object x : a)
+				c.add(copyValue(x));
+			return c;
+		}
+		if (o instanceof BSONObject) {
+			BSONObject b = (BSONObject) o;
+			BasicBSONObject c = new BasicBSONObject();
+			for (String k : b.keySet())
+				c.put(k, copyValue(b.get(k)));
+			return c;
+		}
+		if (o instanceof byte[])
+			return ((byte[]) o).clone();
+		if (o instanceof Map<?, ?>) {
+			Map<?, ?> m = (Map<?, ?>) o;
+			BasicBSONObject c = new BasicBSONObject();
+			for (Map.Entry<?, ?> e : m.entrySet())
+				c.put(e.getKey().toString(), copyValue(e.getValue()));
+			return c;
+		}
+		// anything else (other numbers, Binary, Code, Pattern ...) goes
+		// through the BSON conversion
+		return BSON.decode(BSON.encode(new BasicBSONObject("x", o))).get("x");
 	}
 
 	public static BSONBackedObject decode(byte[] bson, SchemaDefinition schema) {
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BSON;
+import org.bson.types.ObjectId;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+
+/**
+ * Buffers the first versions of objects (see Versioning.insert) and inserts
+ * them with a single multi-document insert once there are enough of them, or
+ * the oldest one has been waiting for too long.
+ *
+ * If an object cannot be inserted because of a unique index, that is reported
+ * to the DuplicateHandler, and the other objects are inserted anyway.
+ *
+ * There is no background thread: the time limit is checked when an object is
+ * added, or when flushIfDue is called. Call flush when done.
+ */
+
+public class BatchInserter {
+
+	public interface DuplicateHandler {
+
+		/**
+		 * called for every object that was not inserted because it violates a
+		 * unique index
+		 */
+		void duplicate(DBObject object, MongoException.DuplicateKey e);
+	}
+
+	private final DBCollection collection;
+
+	private final int batchSize;
+
+	private final long maxDelayMillis;
+
+	private final DuplicateHandler duplicates;
+
+	private final List<DBObject> buffer;
+
+	private long oldest;
+
+	private long inserted;
+
+	private long duplicateCount;
+
+	public BatchInserter(DBCollection collection, int batchSize,
+			long maxDelayMillis, DuplicateHandler duplicates) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be positive: "
+					+ batchSize);
+		this.collection = collection;
+		this.batchSize = batchSize;
+		this.maxDelayMillis = maxDelayMillis;
+		this.duplicates = duplicates;
+		buffer = new ArrayList<DBObject>(batchSize);
+	}
+
+	/**
+	 * adds a first version of an object to be inserted.
+	 *
+	 * It must not already have a _version field. _version will be set to 1.
+	 * If it has no _id, one will be assigned.
+	 */
+	public synchronized void insert(DBObject object) {
+		if (object.containsField(Versioning.VERSION)) {
+			throw new IllegalArgumentException(
+					"The object already has a _version " + object);
+		}
+		object.put(Versioning.VERSION, 1);
+		if (object.get("_id") == null)
+			object.put("_id", new ObjectId());
+		if (buffer.isEmpty())
+			oldest = System.currentTimeMillis();
+		buffer.add(object);
+		if (buffer.size() >= batchSize)
+			flush();
+		else
+			flushIfDue();
+	}
+
+	/**
+	 * inserts the buffered objects if the oldest of them has been waiting for
+	 * longer than the maximum delay
+	 */
+	public synchronized void flushIfDue() {
+		if (!buffer.isEmpty()
+				&& System.currentTimeMillis() - oldest >= maxDelayMillis)
+			flush();
+	}
+
+	/**
+	 * inserts all buffered objects
+	 *
+	 * @return the number of objects that were inserted (not counting
+	 *         duplicates)
+	 */
+	public synchronized int flush() {
+		if (buffer.isEmpty())
+			return 0;
+		List<DBObject> batch = new ArrayList<DBObject>(buffer);
+		buffer.clear();
+		int count = batch.size();
+		try {
+			collection.insert(batch, WriteConcern.SAFE);
+		} catch (MongoException.DuplicateKey e) {
+			count = insertIndividually(batch);
+		}
+		inserted += count;
+		return count;
+	}
+
+	// the multi-document insert stops at the first duplicate, so what it
+	// inserted is a prefix of the batch. An _id can also belong to an older
+	// object, so the prefix ends at the first object that is not stored
+	// exactly as it is in the batch. The rest is inserted one by one.
+	private int insertIndividually(List<DBObject> batch) {
+		List<Object> ids = new ArrayList<Object>(batch.size());
+		for (DBObject o : batch) {
+			ids.add(o.get("_id"));
+		}
+		Map<Object, DBObject> stored = new HashMap<Object, DBObject>();
+		for (DBObject o : collection.find(new BasicDBObject("_id",
+				new BasicDBObject("$in", ids)))) {
+			stored.put(o.get("_id"), o);
+		}
+		int count = 0;
+		while (count < batch.size()) {
+			DBObject o = batch.get(count);
+			DBObject s = stored.get(o.get("_id"));
+			if (s == null || !Arrays.equals(BSON.encode(o), BSON.encode(s)))
+				break;
+			count++;
+		}
+		for (DBObject o : batch.subList(count, batch.size())) {
+			try {
+				collection.insert(o, WriteConcern.SAFE);
+				count++;
+			} catch (MongoException.DuplicateKey e) {
+				duplicateCount++;
+				if (duplicates != null)
+					duplicates.duplicate(o, e);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of objects inserted so far
+	 */
+	public synchronized long getInsertedCount() {
+		return inserted;
+	}
+
+	/**
+	 * @return the number of objects rejected as duplicates so far
+	 */
+	public synchronized long getDuplicateCount() {
+		return duplicateCount;
+	}
+
+	/**
+	 * @return the number of objects waiting to be inserted
+	 */
+	public synchronized int getBufferedCount() {
+		return buffer.size();
+	}
+}
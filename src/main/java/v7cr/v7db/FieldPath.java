@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2011-2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A field name, possibly for a nested field ("a.x"), already split into its
+ * parts.
+ * 
+ * <p>
+ * Instances returned by <code>get</code> are interned (and kept forever), so
+ * you can keep them in constants, or call <code>get</code> every time (which
+ * is a hash lookup). Use it for a fixed set of field names, not for names
+ * that are built at runtime.
+ * 
+ */
+
+@SuppressWarnings("serial")
+public final class FieldPath implements Serializable {
+
+	private static final ConcurrentMap<String, FieldPath> paths = new ConcurrentHashMap<String, FieldPath>();
+
+	private final String path;
+
+	private final String[] segments;
+
+	private FieldPath(String path) {
+		this.path = path;
+		this.segments = StringUtils.splitPreserveAllTokens(path, '.');
+	}
+
+	/**
+	 * @return the interned FieldPath for the given field name
+	 */
+	public static FieldPath get(String path) {
+		FieldPath p = paths.get(checkNotNull(path));
+		if (p != null)
+			return p;
+		p = new FieldPath(path);
+		FieldPath other = paths.putIfAbsent(path, p);
+		return other == null ? p : other;
+	}
+
+	/**
+	 * @return the interned FieldPath if there is one, otherwise a new one
+	 *         that is not interned
+	 */
+	static FieldPath lookup(String path) {
+		FieldPath p = paths.get(checkNotNull(path));
+		if (p != null)
+			return p;
+		return new FieldPath(path);
+	}
+
+	private static String checkNotNull(String path) {
+		if (path == null)
+			throw new IllegalArgumentException("the field path is null");
+		return path;
+	}
+
+	public boolean isNested() {
+		return segments.length > 1;
+	}
+
+	/**
+	 * @return the number of parts (1 for a top-level field)
+	 */
+	public int length() {
+		return segments.length;
+	}
+
+	public String getSegment(int i) {
+		return segments[i];
+	}
+
+	/**
+	 * @return the local name of the field in its parent object
+	 */
+	public String getLastSegment() {
+		return segments[segments.length - 1];
+	}
+
+	/**
+	 * @return the value of the field, or null if it (or one of its parents) is
+	 *         missing
+	 */
+	public Object resolve(Map<?, ?> data) {
+		Object o = data;
+		for (String s : segments) {
+			if (!(o instanceof Map<?, ?>))
+				return null;
+			o = ((Map<?, ?>) o).get(s);
+		}
+		return o;
+	}
+
+	/**
+	 * @return the object that contains the field, or null if it does not
+	 *         exist
+	 */
+	public Map<?, ?> resolveParent(Map<?, ?> data) {
+		Map<?, ?> m = data;
+		for (int i = 0; i < segments.length - 1; i++) {
+			Object o = m.get(segments[i]);
+			if (!(o instanceof Map<?, ?>))
+				return null;
+			m = (Map<?, ?>) o;
+		}
+		return m;
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof FieldPath && ((FieldPath) obj).path.equals(path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	// keep the interned ones interned
+	private Object readResolve() {
+		return lookup(path);
+	}
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Stores file contents by their SHA-1. Storing the same contents twice keeps
+ * only one copy.
+ */
+
+public interface FileStore {
+
+	/**
+	 * stores the contents of the file (unless they are already stored)
+	 *
+	 * @return the SHA-1, as a hex string
+	 */
+	String store(File file) throws IOException;
+
+	/**
+	 * stores everything that can be read from the stream (unless it is
+	 * already stored). The stream is not closed.
+	 *
+	 * @return the SHA-1, as a hex string
+	 */
+	String store(InputStream in) throws IOException;
+
+	/**
+	 * @return a stream to write new contents to, as they arrive
+	 */
+	FileUpload upload() throws IOException;
+
+	/**
+	 * @return the contents stored for the SHA-1, null if there are none
+	 */
+	Content get(String sha) throws IOException;
+
+	interface Content {
+
+		/**
+		 * @return the length in bytes, -1 if not known
+		 */
+		long getLength();
+
+		/**
+		 * writes the contents to the channel (once)
+		 */
+		void writeTo(WritableByteChannel out) throws IOException;
+	}
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * New contents for a FileStore, written as they arrive. They are hashed on the
+ * way, and stored under their SHA-1 when the stream is closed.
+ */
+
+public abstract class FileUpload extends OutputStream {
+
+	private final MessageDigest digest = SHA1.newDigest();
+
+	/**
+	 * where the contents go, to be closed by store and abort
+	 */
+	protected final OutputStream out;
+
+	private long length;
+
+	private String sha;
+
+	protected FileUpload(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		digest.update((byte) b);
+		length++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		digest.update(b, off, len);
+		length += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * stores the contents (unless the same contents are already stored)
+	 */
+	@Override
+	public void close() throws IOException {
+		if (sha != null)
+			return;
+		sha = SHA1.toHex(digest.digest());
+		store(sha);
+	}
+
+	/**
+	 * closes the stream the contents were written to, and stores them
+	 */
+	protected abstract void store(String sha) throws IOException;
+
+	/**
+	 * discards the contents written so far
+	 */
+	public abstract void abort();
+
+	/**
+	 * @return the SHA-1 of the contents, null until the stream is closed
+	 */
+	public String getSHA() {
+		return sha;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+}
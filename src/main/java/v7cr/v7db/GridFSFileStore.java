@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.commons.io.IOUtils;
+import org.bson.types.ObjectId;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+import com.mongodb.gridfs.GridFSInputFile;
+
+/**
+ * Stores files in MongoDB GridFS, with the SHA-1 as the file name.
+ */
+
+public class GridFSFileStore implements FileStore {
+
+	private final GridFS fs;
+
+	public GridFSFileStore(DB db, String bucket) {
+		fs = new GridFS(db, bucket);
+	}
+
+	public String store(File file) throws IOException {
+		String sha = SHA1.of(file);
+		if (fs.findOne(sha) != null)
+			return sha;
+		GridFSInputFile f = fs.createFile(file);
+		f.setFilename(sha);
+		f.save();
+		return sha;
+	}
+
+	public String store(InputStream in) throws IOException {
+		FileUpload upload = upload();
+		try {
+			IOUtils.copyLarge(in, upload);
+			upload.close();
+		} finally {
+			if (upload.getSHA() == null)
+				upload.abort();
+		}
+		return upload.getSHA();
+	}
+
+	public FileUpload upload() {
+		final GridFSInputFile f = fs.createFile();
+		return new FileUpload(f.getOutputStream()) {
+
+			@Override
+			protected void store(String sha) throws IOException {
+				// the file name is saved when the stream is closed
+				f.setFilename(sha);
+				out.close();
+
+				// if the contents were already there, only keep the oldest
+				ObjectId id = (ObjectId) f.getId();
+				for (GridFSDBFile copy : fs.find(sha)) {
+					ObjectId other = (ObjectId) copy.getId();
+					if (other.compareTo(id) < 0) {
+						fs.remove(new BasicDBObject("_id", id));
+						break;
+					}
+				}
+			}
+
+			@Override
+			public void abort() {
+				// the file has not been saved yet, only some of its chunks
+				fs.getDB().getCollection(fs.getBucketName() + ".chunks")
+						.remove(new BasicDBObject("files_id", f.getId()));
+			}
+		};
+	}
+
+	public Content get(String sha) {
+		if (!SHA1.isValid(sha))
+			return null;
+		final GridFSDBFile f = fs.findOne(sha);
+		if (f == null)
+			return null;
+		return new Content() {
+
+			public long getLength() {
+				return f.getLength();
+			}
+
+			public void writeTo(WritableByteChannel out) throws IOException {
+				f.writeTo(Channels.newOutputStream(out));
+			}
+		};
+	}
+
+}
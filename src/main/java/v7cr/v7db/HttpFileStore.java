@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Uses an external file service: files are PUT to the URL, which returns the
+ * SHA-1, and can be downloaded from url?sha=...
+ */
+
+public class HttpFileStore implements FileStore {
+
+	private final HttpClient http;
+
+	private final String url;
+
+	public HttpFileStore(HttpClient http, String url) {
+		this.http = http;
+		this.url = url;
+	}
+
+	public String store(File file) throws IOException {
+		return put(new FileEntity(file, "application/octet-stream"));
+	}
+
+	public String store(InputStream in) throws IOException {
+		InputStreamEntity entity = new InputStreamEntity(in, -1);
+		entity.setChunked(true);
+		return put(entity);
+	}
+
+	/**
+	 * the service needs the contents at once, so they are collected in a
+	 * temporary file first
+	 */
+	public FileUpload upload() throws IOException {
+		final File temp = File.createTempFile("upload", ".tmp");
+		return new FileUpload(new FileOutputStream(temp)) {
+
+			@Override
+			protected void store(String sha) throws IOException {
+				try {
+					out.close();
+					String stored = HttpFileStore.this.store(temp);
+					if (!sha.equals(stored))
+						throw new IOException("file service returned SHA-1 "
+								+ stored + " instead of " + sha);
+				} finally {
+					temp.delete();
+				}
+			}
+
+			@Override
+			public void abort() {
+				IOUtils.closeQuietly(out);
+				temp.delete();
+			}
+		};
+	}
+
+	private String put(HttpEntity entity) throws IOException {
+		HttpPut put = new HttpPut(url);
+		put.setEntity(entity);
+		HttpResponse response = http.execute(put);
+		if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+			// release the connection
+			EntityUtils.consume(response.getEntity());
+			throw new IOException("failed to store file: "
+					+ response.getStatusLine());
+		}
+		return EntityUtils.toString(response.getEntity()).trim();
+	}
+
+	public Content get(String sha) throws IOException {
+		if (!SHA1.isValid(sha))
+			return null;
+		HttpResponse response = http.execute(new HttpGet(url
+				+ (url.indexOf('?') < 0 ? '?' : '&') + "sha=" + sha));
+		final HttpEntity entity = response.getEntity();
+		int status = response.getStatusLine().getStatusCode();
+		if (status != HttpStatus.SC_OK) {
+			EntityUtils.consume(entity);
+			if (status == HttpStatus.SC_NOT_FOUND)
+				return null;
+			throw new IOException("failed to get file " + sha + ": "
+					+ response.getStatusLine());
+		}
+		return new Content() {
+
+			public long getLength() {
+				return entity.getContentLength();
+			}
+
+			public void writeTo(WritableByteChannel out) throws IOException {
+				try {
+					entity.writeTo(Channels.newOutputStream(out));
+				} finally {
+					EntityUtils.consume(entity);
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Stores files in a local directory, as root/ab/cdef... (for SHA-1 abcdef...).
+ *
+ * New files are written to a temporary file in the same directory first, and
+ * then renamed, so that a file is either complete or not there at all.
+ */
+
+public class LocalFileStore implements FileStore {
+
+	private final File root;
+
+	public LocalFileStore(File root) {
+		root.mkdirs();
+		if (!root.isDirectory())
+			throw new IllegalArgumentException("not a directory: " + root);
+		this.root = root;
+	}
+
+	private File getFile(String sha) {
+		return new File(new File(root, sha.substring(0, 2)), sha.substring(2));
+	}
+
+	public String store(File file) throws IOException {
+		String sha = SHA1.of(file);
+		File target = getFile(sha);
+		if (!target.exists())
+			copyTo(file, target);
+		return sha;
+	}
+
+	private void copyTo(File file, File target) throws IOException {
+		File temp = File.createTempFile("store", ".tmp", root);
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileOutputStream out = new FileOutputStream(temp);
+				try {
+					transfer(in.getChannel(), out.getChannel());
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			moveTo(temp, target);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	public String store(InputStream in) throws IOException {
+		FileUpload upload = upload();
+		try {
+			IOUtils.copyLarge(in, upload);
+			upload.close();
+		} finally {
+			if (upload.getSHA() == null)
+				upload.abort();
+		}
+		return upload.getSHA();
+	}
+
+	public FileUpload upload() throws IOException {
+		final File temp = File.createTempFile("store", ".tmp", root);
+		return new FileUpload(new FileOutputStream(temp)) {
+
+			@Override
+			protected void store(String sha) throws IOException {
+				try {
+					out.close();
+					File target = getFile(sha);
+					if (!target.exists())
+						moveTo(temp, target);
+				} finally {
+					temp.delete();
+				}
+			}
+
+			@Override
+			public void abort() {
+				IOUtils.closeQuietly(out);
+				temp.delete();
+			}
+		};
+	}
+
+	private static void moveTo(File temp, File target) throws IOException {
+		target.getParentFile().mkdirs();
+		// if that fails because the same contents were just stored
+		// concurrently, that is fine, too
+		if (!temp.renameTo(target) && !target.exists())
+			throw new IOException("failed to store " + target);
+	}
+
+	// FileChannel.transferTo can use zero-copy, depending on the platform
+	// and the kind of target channel
+	private static void transfer(FileChannel in, WritableByteChannel out)
+			throws IOException {
+		long size = in.size();
+		long pos = 0;
+		while (pos < size) {
+			pos += in.transferTo(pos, size - pos, out);
+		}
+	}
+
+	public Content get(String sha) {
+		if (!SHA1.isValid(sha))
+			return null;
+		final File f = getFile(sha);
+		if (!f.isFile())
+			return null;
+		return new Content() {
+
+			public long getLength() {
+				return f.length();
+			}
+
+			public void writeTo(WritableByteChannel out) throws IOException {
+				FileInputStream in = new FileInputStream(f);
+				try {
+					transfer(in.getChannel(), out);
+				} finally {
+					in.close();
+				}
+			}
+		};
+	}
+
+}
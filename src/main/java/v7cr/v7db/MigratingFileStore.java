@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores new contents in one store, and looks up contents that are not there
+ * in another (legacy) store. Contents found in the legacy store are copied
+ * over on first access, so that they are eventually all migrated.
+ */
+
+public class MigratingFileStore implements FileStore {
+
+	private static final Logger log = Logger.getLogger(MigratingFileStore.class
+			.getName());
+
+	private final FileStore store;
+
+	private final FileStore legacy;
+
+	public MigratingFileStore(FileStore store, FileStore legacy) {
+		this.store = store;
+		this.legacy = legacy;
+	}
+
+	public String store(File file) throws IOException {
+		return store.store(file);
+	}
+
+	public String store(InputStream in) throws IOException {
+		return store.store(in);
+	}
+
+	public FileUpload upload() throws IOException {
+		return store.upload();
+	}
+
+	public Content get(String sha) throws IOException {
+		Content c = store.get(sha);
+		if (c != null)
+			return c;
+		Content old;
+		try {
+			old = legacy.get(sha);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "failed to look up " + sha
+					+ " in the legacy file store", e);
+			return null;
+		}
+		if (old == null)
+			return null;
+
+		FileUpload upload = store.upload();
+		try {
+			old.writeTo(Channels.newChannel(upload));
+			upload.close();
+		} finally {
+			if (upload.getSHA() == null)
+				upload.abort();
+		}
+		if (!sha.equals(upload.getSHA()))
+			throw new IOException("the legacy file store returned "
+					+ upload.getSHA() + " for " + sha);
+		log.info("copied " + sha + " from the legacy file store");
+		return store.get(sha);
+	}
+
+}
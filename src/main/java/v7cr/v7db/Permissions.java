@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The set of roles someone has, for permission checks.
+ *
+ * Every role id gets a number (for the lifetime of the process), and the set
+ * is stored as a bitset over those numbers. Equal sets are interned, so the
+ * sessions of all users with the same roles share one instance.
+ */
+
+public final class Permissions {
+
+	private static final String PROJECT_PREFIX = "project:";
+
+	private static final ConcurrentMap<String, Integer> roleIndex = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * project name -> index of the "project:name" role
+	 */
+	private static final ConcurrentMap<String, Integer> projectIndex = new ConcurrentHashMap<String, Integer>();
+
+	private static final List<String> roleIds = new CopyOnWriteArrayList<String>();
+
+	private static final ConcurrentMap<Permissions, Permissions> interned = new ConcurrentHashMap<Permissions, Permissions>();
+
+	private final long[] bits;
+
+	private Permissions(long[] bits) {
+		this.bits = bits;
+	}
+
+	private static synchronized int indexOf(String roleId) {
+		Integer i = roleIndex.get(roleId);
+		if (i == null) {
+			i = roleIds.size();
+			roleIds.add(roleId);
+			roleIndex.put(roleId, i);
+			if (roleId.startsWith(PROJECT_PREFIX)) {
+				projectIndex.put(roleId.substring(PROJECT_PREFIX.length()), i);
+			}
+		}
+		return i;
+	}
+
+	public static Permissions of(Collection<String> roles) {
+		int[] indexes = new int[roles.size()];
+		int max = -1;
+		int j = 0;
+		for (String r : roles) {
+			indexes[j] = indexOf(r);
+			max = Math.max(max, indexes[j++]);
+		}
+		long[] bits = new long[(max >> 6) + 1];
+		for (int i : indexes) {
+			bits[i >> 6] |= 1L << i;
+		}
+		Permissions p = new Permissions(bits);
+		Permissions existing = interned.putIfAbsent(p, p);
+		return existing == null ? p : existing;
+	}
+
+	private boolean test(Integer i) {
+		if (i == null)
+			return false;
+		int word = i >> 6;
+		return word < bits.length && (bits[word] & (1L << i)) != 0;
+	}
+
+	public boolean hasRole(String roleId) {
+		return test(roleIndex.get(roleId));
+	}
+
+	/**
+	 * @return if there is the "project:" role for the project
+	 */
+	public boolean canAccessProject(String projectName) {
+		return test(projectIndex.get(projectName));
+	}
+
+	/**
+	 * @return the names of all projects that can be accessed
+	 */
+	public List<String> getProjects() {
+		List<String> projects = new ArrayList<String>();
+		for (int i = 0; i < bits.length * 64; i++) {
+			if (test(i)) {
+				String r = roleIds.get(i);
+				if (r.startsWith(PROJECT_PREFIX))
+					projects.add(r.substring(PROJECT_PREFIX.length()));
+			}
+		}
+		return projects;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof Permissions)
+			return Arrays.equals(bits, ((Permissions) obj).bits);
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(bits);
+	}
+
+}
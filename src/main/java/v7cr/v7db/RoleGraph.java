@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BasicBSONObject;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+/**
+ * All roles, and who is a member of which role, including indirect
+ * memberships (as a member of a role that is a member of another role).
+ *
+ * Built from a single scan of the roles collection, and not updated
+ * afterwards. Use Roles.getRoleGraph to get an up-to-date one.
+ */
+
+public class RoleGraph {
+
+	private final Map<String, Role> roles;
+
+	/**
+	 * for every user or role id, all roles it is a (direct or indirect)
+	 * member of
+	 */
+	private final Map<String, Map<String, Role>> memberships;
+
+	private final long created = System.currentTimeMillis();
+
+	RoleGraph(DBCollection collection) {
+		Map<String, Role> all = new HashMap<String, Role>();
+		// member id -> the roles it is directly a member of
+		Map<String, List<String>> direct = new HashMap<String, List<String>>();
+		for (DBObject o : collection.find()) {
+			Role r = new Role((BasicBSONObject) o);
+			all.put(r.getId(), r);
+			for (String m : r.getMembers().keySet()) {
+				List<String> l = direct.get(m);
+				if (l == null) {
+					l = new ArrayList<String>();
+					direct.put(m, l);
+				}
+				l.add(r.getId());
+			}
+		}
+		roles = Collections.unmodifiableMap(all);
+
+		Map<String, Map<String, Role>> closure = new HashMap<String, Map<String, Role>>();
+		for (String member : direct.keySet()) {
+			Map<String, Role> found = new LinkedHashMap<String, Role>();
+			List<String> todo = new ArrayList<String>(direct.get(member));
+			Set<String> seen = new HashSet<String>(todo);
+			while (!todo.isEmpty()) {
+				String id = todo.remove(todo.size() - 1);
+				Role r = all.get(id);
+				if (r == null)
+					continue;
+				found.put(id, r);
+				List<String> parents = direct.get(id);
+				if (parents != null)
+					for (String p : parents)
+						if (seen.add(p))
+							todo.add(p);
+			}
+			closure.put(member, Collections.unmodifiableMap(found));
+		}
+		memberships = closure;
+	}
+
+	/**
+	 * @return the role, or null if there is no such role
+	 */
+	public Role getRole(String roleId) {
+		return roles.get(roleId);
+	}
+
+	/**
+	 * @return all roles that the user (or role) is a member of, directly or
+	 *         indirectly, by role id
+	 */
+	public Map<String, Role> getRoles(String memberId) {
+		Map<String, Role> r = memberships.get(memberId);
+		if (r == null)
+			return Collections.emptyMap();
+		return r;
+	}
+
+	long getCreated() {
+		return created;
+	}
+}
@@ -17,45 +17,75 @@
 
 package v7cr.v7db;
 
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.bson.BasicBSONObject;
-
-import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
-import com.mongodb.DBObject;
 
 public class Roles {
 
-	public static Map<String, Role> loadRoles(DBCollection collection,
-			String userId) {
-		Map<String, Role> allRoles = new HashMap<String, Role>();
-		Set<Role> roles = new HashSet<Role>();
+	/**
+	 * how long a RoleGraph is used before it is reloaded, in case the roles
+	 * were changed by someone else (changes made through this class's
+	 * invalidate are picked up immediately)
+	 */
+	private static final long MAX_AGE_MILLIS = 60 * 1000;
 
-		for (DBObject o : collection.find(new BasicDBObject("member._id",
-				userId))) {
-			roles.add(new Role((BasicBSONObject) o));
-		}
+	/**
+	 * by the full name of the roles collection
+	 */
+	private static final ConcurrentMap<String, RoleGraph> graphs = new ConcurrentHashMap<String, RoleGraph>();
+
+	/**
+	 * incremented by invalidate, so that a graph that was being built at the
+	 * same time is not cached
+	 */
+	private static final AtomicLong generation = new AtomicLong();
 
-		while (!roles.isEmpty()) {
-			Set<Role> newRoles = new HashSet<Role>();
-			for (Role r : roles) {
-				allRoles.put(r.getId(), r);
-				for (Role n : loadRoles(collection, r.getId()).values()) {
-					if (!allRoles.containsKey(n.getId())) {
-						newRoles.add(n);
-					}
-				}
+	/**
+	 * @return the (cached) roles and memberships
+	 */
+	public static RoleGraph getRoleGraph(DBCollection collection) {
+		String key = collection.getFullName();
+		RoleGraph g = graphs.get(key);
+		if (g == null
+				|| System.currentTimeMillis() - g.getCreated() > MAX_AGE_MILLIS) {
+			long gen = generation.get();
+			g = new RoleGraph(collection);
+			if (gen == generation.get()) {
+				graphs.put(key, g);
+				// invalidate may have run between the check and the put
+				if (gen != generation.get())
+					graphs.remove(key, g);
 			}
-			roles = newRoles;
 		}
+		return g;
+	}
+
+	/**
+	 * discards the cached roles, to be called after the roles collection has
+	 * been changed
+	 */
+	public static void invalidate(DBCollection collection) {
+		generation.incrementAndGet();
+		graphs.remove(collection.getFullName());
+	}
 
-		return allRoles;
+	/**
+	 * @return all roles that the user is a member of, directly or indirectly,
+	 *         by role id
+	 */
+	public static Map<String, Role> loadRoles(DBCollection collection,
+			String userId) {
+		return getRoleGraph(collection).getRoles(userId);
 	}
 
+	/**
+	 * loads the current version of the role from the database (not from the
+	 * cache)
+	 */
 	public static Role load(DBCollection collection, String roleId) {
 		return new Role(BSONBackedObjectLoader
 				.findOne(collection, roleId, null));
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 helpers for the FileStores
+ */
+
+final class SHA1 {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private SHA1() {
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static String toHex(byte[] digest) {
+		char[] c = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			c[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+			c[2 * i + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(c);
+	}
+
+	static String of(File file) throws IOException {
+		MessageDigest d = newDigest();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				d.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(d.digest());
+	}
+
+	/**
+	 * @return if the string looks like a SHA-1 (40 hex digits), so that it can
+	 *         be used in file names
+	 */
+	static boolean isValid(String sha) {
+		if (sha == null || sha.length() != 40)
+			return false;
+		for (int i = 0; i < 40; i++) {
+			char c = sha.charAt(i);
+			if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')))
+				return false;
+		}
+		return true;
+	}
+}
@@ -18,13 +18,23 @@
 package v7cr.v7db;
 
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.bson.BasicBSONObject;
 
+/**
+ * The definition of an object (or a field), as parsed from JSON.
+ * 
+ * <p>
+ * Instances are immutable and can be shared between threads. Field
+ * definitions and types are resolved only once and then remembered, so that
+ * repeated lookups (as in table rendering) are just a hash lookup.
+ */
 public class SchemaDefinition {
 
 	private final BSONBackedObject bson;
@@ -62,6 +72,21 @@ public class SchemaDefinition {
 	// to scope the type definitions
 	private final SchemaDefinition parent;
 
+	private final LocalizedString caption;
+
+	/** null if unrestricted */
+	private final Object[] possibleValues;
+
+	/** meta-data for the possible values, by value. null if unrestricted */
+	private final Map<Object, BSONBackedObject> possibleValueMetaData;
+
+	/** resolved field definitions, by (possibly nested) field name */
+	private final ConcurrentMap<String, SchemaDefinition> fieldDefinitions = new ConcurrentHashMap<String, SchemaDefinition>();
+
+	/** marks undefined fields in the fieldDefinitions */
+	private static final SchemaDefinition UNDEFINED = new SchemaDefinition(
+			new BSONBackedObject());
+
 	public SchemaDefinition(BSONBackedObject bson) {
 		this(bson, null);
 	}
@@ -84,6 +109,33 @@ public class SchemaDefinition {
 			}
 		}
 		fields = f;
+		caption = LocalizedString.get(bson, "caption");
+
+		Object p = bson.getField(POSSIBLE_VALUES);
+		if (p == null) {
+			possibleValues = null;
+			possibleValueMetaData = null;
+		} else {
+			if (!(p instanceof Object[])) {
+				p = new Object[] { p };
+			}
+			Object[] o = (Object[]) p;
+			Map<Object, BSONBackedObject> meta = new LinkedHashMap<Object, BSONBackedObject>(
+					o.length * 2);
+			for (int i = 0; i < o.length; i++) {
+				Object x = o[i];
+				if (x instanceof BSONBackedObject) {
+					BSONBackedObject b = (BSONBackedObject) x;
+					o[i] = b.getField("_id");
+					meta.put(o[i], b);
+				} else {
+					meta.put(x, BSONBackedObjectLoader.wrap(
+							new BasicBSONObject("_id", x), null));
+				}
+			}
+			possibleValues = o;
+			possibleValueMetaData = Collections.unmodifiableMap(meta);
+		}
 	}
 
 	SchemaDefinition(BasicBSONObject bson) {
@@ -112,7 +164,7 @@ public class SchemaDefinition {
 		if (sd == null)
 			return null;
 
-		return LocalizedString.get(sd.bson, "caption");
+		return sd.caption;
 	}
 
 	/**
@@ -124,10 +176,10 @@ public class SchemaDefinition {
 
 	public String getFieldCaption(String fieldName, Locale l) {
 		SchemaDefinition sd = getFieldDefinition(fieldName);
-		if (sd == null)
+		if (sd == null || sd.caption == null)
 			return null;
 
-		return LocalizedString.get(sd.bson, "caption", l);
+		return sd.caption.toString(l);
 	}
 
 	/**
@@ -135,6 +187,19 @@ public class SchemaDefinition {
 	 */
 
 	public SchemaDefinition getFieldDefinition(String fieldName) {
+		SchemaDefinition d = fieldDefinitions.get(fieldName);
+		if (d == null) {
+			d = resolveFieldDefinition(fieldName);
+			if (d == null)
+				d = UNDEFINED;
+			SchemaDefinition other = fieldDefinitions.putIfAbsent(fieldName, d);
+			if (other != null)
+				d = other;
+		}
+		return d == UNDEFINED ? null : d;
+	}
+
+	private SchemaDefinition resolveFieldDefinition(String fieldName) {
 		if (fields == null)
 			return null;
 		int idx = fieldName.indexOf('.');
@@ -175,21 +240,9 @@ public class SchemaDefinition {
 	 */
 
 	public Object[] getPossibleValues() {
-		Object p = bson.getField(POSSIBLE_VALUES);
-		if (p == null)
+		if (possibleValues == null)
 			return null;
-		if (!(p instanceof Object[])) {
-			p = new Object[] { p };
-		}
-		Object[] o = (Object[]) p;
-		int i = 0;
-		for (Object x : o) {
-			if (x instanceof BSONBackedObject) {
-				o[i] = ((BSONBackedObject) x).getField("_id");
-			}
-			i++;
-		}
-		return o;
+		return possibleValues.clone();
 	}
 
 	/**
@@ -200,27 +253,9 @@ public class SchemaDefinition {
 	 */
 
 	public BSONBackedObject getPossibleValueMetaData(Object value) {
-		Object p = bson.getField(POSSIBLE_VALUES);
-		if (p == null)
+		if (possibleValueMetaData == null)
 			return null;
-		if (!(p instanceof Object[])) {
-			p = new Object[] { p };
-		}
-		Object[] o = (Object[]) p;
-		for (Object x : o) {
-			if (x instanceof BSONBackedObject) {
-
-				BSONBackedObject b = ((BSONBackedObject) x);
-				Object id = b.getField("_id");
-				if (value.equals(id))
-					return b;
-				continue;
-			}
-			if (value.equals(x))
-				return BSONBackedObjectLoader.wrap(
-						new BasicBSONObject("_id", x), null);
-		}
-		return null;
+		return possibleValueMetaData.get(value);
 	}
 
 	/**
@@ -249,7 +284,7 @@ public class SchemaDefinition {
 		return Boolean.TRUE.equals(bson.getBooleanField("required"));
 	}
 
-	private Map<String, SchemaDefinition> localTypes;
+	private final ConcurrentMap<String, SchemaDefinition> localTypes = new ConcurrentHashMap<String, SchemaDefinition>();
 
 	/**
 	 * Returns the SchemaDefinition for a complex type, as per the current scope
@@ -259,8 +294,6 @@ public class SchemaDefinition {
 	 *            without the leading colon (:)
 	 */
 	public SchemaDefinition getType(String name) {
-		if (localTypes == null)
-			localTypes = new HashMap<String, SchemaDefinition>();
 		SchemaDefinition d = localTypes.get(name);
 		if (d != null)
 			return d;
@@ -278,8 +311,8 @@ public class SchemaDefinition {
 			return null;
 		}
 		d = new SchemaDefinition(s, this);
-		localTypes.put(name, d);
-		return d;
+		SchemaDefinition other = localTypes.putIfAbsent(name, d);
+		return other == null ? d : other;
 	}
 
 	public static SchemaDefinition parse(String json) {
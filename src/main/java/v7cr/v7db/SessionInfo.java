@@ -17,13 +17,11 @@
 
 package v7cr.v7db;
 
-import java.util.Map;
-
 public class SessionInfo {
 
 	public  AccountInfo accountInfo;
 	
-	public Map<String, Role> roles;
+	public Permissions permissions;
 	
 	
 	
@@ -17,7 +17,11 @@
 
 package v7cr.v7db;
 
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bson.BSONObject;
 
@@ -65,6 +69,259 @@ public class Versioning {
 		return result;
 	}
 
+	/**
+	 * updates an object from baseObject to newObject, but only if the base
+	 * version has not been changed in the meantime. Instead of replacing the
+	 * whole document, only the differences between the two are sent, as
+	 * $set/$unset/$pushAll/$pullAll modifiers, and _version is incremented in
+	 * the same (atomic) operation. The _id of both objects must be the same,
+	 * their _version fields are ignored (the base version is taken from
+	 * baseObject).
+	 */
+
+	public static WriteResult update(DBCollection collection,
+			BSONBackedObject baseObject, BSONBackedObject newObject) {
+		Integer baseVersion = getVersion(baseObject);
+		if (baseVersion == null)
+			throw new IllegalArgumentException(
+					"The base object has no _version " + baseObject);
+		Object id = baseObject.getField("_id");
+		if (id == null || !id.equals(newObject.getField("_id")))
+			throw new IllegalArgumentException(
+					"The objects have different _ids " + id + " / "
+							+ newObject.getField("_id"));
+		DBObject modifiers = diff(baseObject.getBSON(), newObject.getBSON());
+		modifiers.put("$inc", new BasicDBObject(VERSION, 1));
+		WriteResult result = collection.update(new BasicDBObject("_id", id)
+				.append(VERSION, baseVersion), modifiers);
+		if (result.getN() != 1)
+			throw new ConcurrentModificationException("baseVersion has changed");
+		return result;
+	}
+
+	/**
+	 * applies update modifiers that do not depend on the current state of the
+	 * object (such as $push or $inc) to the object matching the query, and
+	 * increments its _version in the same (atomic) operation. The modifiers
+	 * object is changed to include the _version increment.
+	 * 
+	 * @return the requested fields of the updated object, or null if no
+	 *         object matched the query
+	 */
+	public static DBObject modify(DBCollection collection, DBObject query,
+			DBObject modifiers, DBObject fields) {
+		DBObject inc = (DBObject) modifiers.get("$inc");
+		if (inc == null) {
+			inc = new BasicDBObject();
+			modifiers.put("$inc", inc);
+		}
+		inc.put(VERSION, 1);
+		return collection.findAndModify(query, fields, null, false,
+				modifiers, true, false);
+	}
+
+	/**
+	 * A modification that can be re-applied to a newer version of an object,
+	 * such as adding a vote. Implementations should only depend on the object
+	 * they are given, not on the one that was loaded originally, so that they
+	 * can be replayed after a concurrent update.
+	 */
+	public interface Modification {
+
+		/**
+		 * @return the modified object, or the given one if nothing is to be
+		 *         changed
+		 */
+		BSONBackedObject apply(BSONBackedObject current);
+	}
+
+	/**
+	 * how often a versioned update is attempted before giving up
+	 */
+	public static final int MAX_ATTEMPTS = 5;
+
+	private static final long MAX_BACKOFF_MILLIS = 500;
+
+	private static final AtomicLong conflicts = new AtomicLong();
+
+	private static final AtomicLong retries = new AtomicLong();
+
+	private static final Random jitter = new Random();
+
+	/**
+	 * loads the current version of an object, applies the modification and
+	 * updates the object (only the differences are sent). If another update
+	 * happened in the meantime, the object is reloaded and the modification
+	 * re-applied, up to MAX_ATTEMPTS times with a (bounded, randomized)
+	 * exponential backoff in between.
+	 * 
+	 * @return the updated object, with its new _version, or null if the
+	 *         object does not exist (anymore)
+	 * @throws ConcurrentModificationException
+	 *             if all attempts failed
+	 */
+	public static BSONBackedObject update(DBCollection collection,
+			Object id, Modification modification) {
+		for (int attempt = 1;; attempt++) {
+			BSONBackedObject current = BSONBackedObjectLoader.findOne(
+					collection, id, null);
+			if (current == null)
+				return null;
+			BSONBackedObject updated = modification.apply(current);
+			// the modification may return a subclass, such as a Review
+			if (updated == current
+					|| updated.getBSON().equals(current.getBSON()))
+				return current;
+			Integer baseVersion = getVersion(current);
+			if (baseVersion == null)
+				throw new IllegalArgumentException(
+						"The base object has no _version " + current);
+			try {
+				update(collection, current, updated);
+				return updated.withVersion(baseVersion + 1);
+			} catch (ConcurrentModificationException e) {
+				conflicts.incrementAndGet();
+				if (attempt >= MAX_ATTEMPTS)
+					throw e;
+				long backoff = Math.min(MAX_BACKOFF_MILLIS, 10L << attempt);
+				try {
+					Thread.sleep(backoff / 2 + jitter.nextInt((int) backoff));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				retries.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of versioned updates that failed because the base
+	 *         version had changed
+	 */
+	public static long getConflictCount() {
+		return conflicts.get();
+	}
+
+	/**
+	 * @return the number of times a versioned update was retried after a
+	 *         conflict
+	 */
+	public static long getRetryCount() {
+		return retries.get();
+	}
+
+	/**
+	 * calculates the update modifiers to turn the base document into the new
+	 * one (excluding _id and _version).
+	 */
+	static DBObject diff(BSONObject base, BSONObject updated) {
+		BasicDBObject modifiers = new BasicDBObject();
+		diff(null, base, updated, modifiers);
+		return modifiers;
+	}
+
+	private static void diff(String prefix, BSONObject base,
+			BSONObject updated, BasicDBObject modifiers) {
+		for (String key : updated.keySet()) {
+			if (prefix == null && (key.equals("_id") || key.equals(VERSION)))
+				continue;
+			String path = prefix == null ? key : prefix + "." + key;
+			Object n = updated.get(key);
+			if (!base.containsField(key)) {
+				addModifier(modifiers, "$set", path, n);
+				continue;
+			}
+			diffValue(path, base.get(key), n, modifiers);
+		}
+		for (String key : base.keySet()) {
+			if (prefix == null && (key.equals("_id") || key.equals(VERSION)))
+				continue;
+			if (!updated.containsField(key)) {
+				addModifier(modifiers, "$unset", prefix == null ? key : prefix
+						+ "." + key, 1);
+			}
+		}
+	}
+
+	private static void diffValue(String path, Object o, Object n,
+			BasicDBObject modifiers) {
+		if (o == n || (o != null && o.equals(n)))
+			return;
+		if (o instanceof List<?> && n instanceof List<?>) {
+			diffList(path, (List<?>) o, (List<?>) n, modifiers);
+			return;
+		}
+		if (isDocument(o) && isDocument(n)) {
+			diff(path, (BSONObject) o, (BSONObject) n, modifiers);
+			return;
+		}
+		addModifier(modifiers, "$set", path, n);
+	}
+
+	private static void diffList(String path, List<?> o, List<?> n,
+			BasicDBObject modifiers) {
+		int os = o.size();
+		int ns = n.size();
+		// elements appended at the end
+		if (ns > os && n.subList(0, os).equals(o)) {
+			addModifier(modifiers, "$pushAll", path, new ArrayList<Object>(n
+					.subList(os, ns)));
+			return;
+		}
+		// same length: update the changed elements by position
+		if (ns == os) {
+			for (int i = 0; i < os; i++) {
+				diffValue(path + "." + i, o.get(i), n.get(i), modifiers);
+			}
+			return;
+		}
+		// elements removed (and none of them left in the new list)
+		if (ns < os) {
+			List<Object> removed = new ArrayList<Object>(os - ns);
+			int j = 0;
+			for (Object x : o) {
+				if (j < ns && equal(x, n.get(j))) {
+					j++;
+				} else {
+					removed.add(x);
+				}
+			}
+			if (j == ns) {
+				boolean clean = true;
+				for (Object x : removed) {
+					if (n.contains(x)) {
+						clean = false;
+						break;
+					}
+				}
+				if (clean) {
+					addModifier(modifiers, "$pullAll", path, removed);
+					return;
+				}
+			}
+		}
+		addModifier(modifiers, "$set", path, n);
+	}
+
+	private static boolean isDocument(Object o) {
+		return o instanceof BSONObject && !(o instanceof List<?>);
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static void addModifier(BasicDBObject modifiers, String op,
+			String path, Object value) {
+		BasicDBObject m = (BasicDBObject) modifiers.get(op);
+		if (m == null) {
+			m = new BasicDBObject();
+			modifiers.put(op, m);
+		}
+		m.put(path, value);
+	}
+
 	public static Integer getVersion(BSONBackedObject b) {
 		return b.getIntegerField(VERSION);
 	}
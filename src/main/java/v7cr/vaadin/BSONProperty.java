@@ -21,6 +21,8 @@ import java.util.Map;
 
 import org.bson.BSONObject;
 
+import v7cr.v7db.FieldPath;
+
 import com.vaadin.data.util.AbstractProperty;
 
 @SuppressWarnings("serial")
@@ -28,54 +30,30 @@ public class BSONProperty extends AbstractProperty {
 
 	private final BSONObject bson;
 
-	private final String fieldName;
+	private final FieldPath field;
 
 	public BSONProperty(BSONObject bson, String fieldName) {
+		this(bson, FieldPath.get(fieldName));
+	}
+
+	public BSONProperty(BSONObject bson, FieldPath field) {
 		this.bson = bson;
-		this.fieldName = fieldName;
+		this.field = field;
 	}
 
 	public Class<?> getType() {
 		return getValue().getClass();
 	}
 
-	// for nested fields
-	// returns { parentObject, localFieldName }
-
-	private static Object[] drillDownToParent(Map<?, ?> data, String field) {
-		if (field == null) {
-			return null;
-		}
-		int idx = field.indexOf('.');
-		if (idx == -1) {
-			return new Object[] { data, field };
-		}
-		String head = field.substring(0, idx);
-		String tail = field.substring(idx + 1);
-		Object o = data.get(head);
-		if (o instanceof Map<?, ?>) {
-			return drillDownToParent((Map<?, ?>) o, tail);
-		}
-		return null;
-	}
-
-	// for nested fields
-	private Object drillDown(String field) {
-		Object[] d = drillDownToParent((Map<?, ?>) bson, field);
-		if (d == null)
-			return null;
-		return ((Map<?, ?>) d[0]).get(d[1]);
-	}
-
 	public Object getValue() {
-		return drillDown(fieldName);
+		return field.resolve((Map<?, ?>) bson);
 	}
 
 	public void setValue(Object newValue) throws ReadOnlyException,
 			ConversionException {
-		if (fieldName.contains("."))
-			throw new ReadOnlyException(fieldName);
-		bson.put(fieldName, newValue);
+		if (field.isNested())
+			throw new ReadOnlyException(field.toString());
+		bson.put(field.toString(), newValue);
 	}
 
 	@Override
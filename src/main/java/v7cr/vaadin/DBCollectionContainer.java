@@ -17,12 +17,18 @@
 
 package v7cr.vaadin;
 
+import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
 
 import org.bson.BSONObject;
 
@@ -34,10 +40,20 @@ import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.vaadin.data.Item;
 import com.vaadin.data.Property;
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.Container.Filterable;
 import com.vaadin.data.Container.Indexed;
-import com.vaadin.data.Container.Ordered;
+import com.vaadin.data.Container.ItemSetChangeNotifier;
+import com.vaadin.data.Container.Sortable;
 import com.vaadin.data.util.AbstractContainer;
 import com.vaadin.data.util.BeanContainer;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.IsNull;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+import com.vaadin.data.util.filter.UnsupportedFilterException;
 
 /**
  * A Vaadin Container backed by a MongoDB collection.
@@ -49,6 +65,21 @@ import com.vaadin.data.util.BeanContainer;
  * and in pages.
  * 
  * <p>
+ * In "lazy" mode, not even the _ids are loaded up-front: the size comes from
+ * count(), and the _ids are loaded together with the page they are on (using
+ * skip and limit), so the memory used does not depend on the number of
+ * documents.
+ * 
+ * <p>
+ * Loaded pages are kept in a (bounded) LRU cache. When a page needs to be
+ * loaded, the next page in the direction of scrolling is loaded along with it.
+ * 
+ * <p>
+ * Sorting and filtering is done by MongoDB: the sort order and the filters are
+ * translated into the query, which is re-run for the _ids (or the count in
+ * lazy mode). The propertyIds stay as they are.
+ * 
+ * <p>
  * Every document becomes a Vaadin Item. Since MongoDB is schema-free, there is
  * no database metadata to get the propertyIds for these items. If you do not
  * specify any, the first page of documents is loaded and all top-level
@@ -59,37 +90,99 @@ import com.vaadin.data.util.BeanContainer;
  * You can add nested properties ("a.x") manually, just like with the
  * {@link BeanContainer}.
  * 
+ * <p>
+ * Only the fields for the propertyIds are loaded from the database, so remove
+ * the properties you do not need (especially large nested objects) to make the
+ * documents smaller.
+ * 
  * 
  * @author Thilo Planz, based on the Vaadin SQLContainer addon
  * 
  */
 
 public class DBCollectionContainer extends AbstractContainer implements
-		Ordered, Indexed {
+		Sortable, Indexed, Filterable, ItemSetChangeNotifier {
 
-	private final List<Object> _ids;
+	/** all _ids, in order. null in lazy mode */
+	private List<Object> _ids;
 
 	private final DBCollection collection;
 
+	/** the query from the constructor, before the container filters */
+	private final DBObject baseFilter;
+
+	private final List<Filter> filters = new ArrayList<Filter>();
+
+	/** the query and sort order to load the _ids (or the pages) with */
+	private DBObject query;
+	private DBObject sort;
+
+	/** in lazy mode: the number of matching documents */
+	private int size = -1;
+
 	/** Container properties = column names, data types and statuses */
 	private final List<String> propertyIds = new ArrayList<String>();
 	private final Map<String, Class<?>> propertyTypes = new HashMap<String, Class<?>>();
 	private final Map<String, Boolean> propertyReadOnly = new HashMap<String, Boolean>();
 	private final Map<String, Boolean> propertyNullable = new HashMap<String, Boolean>();
 
+	/** the fields to load from the database, derived from the propertyIds */
+	private DBObject fieldsToLoad;
+
 	/** Page length = number of items contained in one page */
 	private final int pageLength = DEFAULT_PAGE_LENGTH;
 	public static final int DEFAULT_PAGE_LENGTH = 100;
 
-	/** Starting row number of the currently fetched page */
-	private int currentOffset = -1;
+	/** Number of pages to keep in the cache */
+	private int pageCacheSize = DEFAULT_PAGE_CACHE_SIZE;
+	public static final int DEFAULT_PAGE_CACHE_SIZE = 10;
+
+	/** the most recently requested page, to see where we are scrolling */
+	private int lastPage = 0;
+
+	/**
+	 * _id to index, for all _ids (in lazy mode: for the _ids on the cached
+	 * pages)
+	 */
+	private final Map<Object, Integer> idIndexes = new HashMap<Object, Integer>();
 
-	/** Item and index caches */
-	private final Map<Integer, Object> itemIndexes = new HashMap<Integer, Object>();
-	private final Map<Object, BSONItem> cachedItems = new HashMap<Object, BSONItem>();
+	/** the items on a page, in order */
+	@SuppressWarnings("serial")
+	private static class Page implements Serializable {
 
+		private final List<Object> ids;
+
+		private final Map<Object, BSONItem> items;
+
+		Page(List<Object> ids, Map<Object, BSONItem> items) {
+			this.ids = ids;
+			this.items = items;
+		}
+	}
+
+	/** LRU cache of pages, by page number */
+	@SuppressWarnings("serial")
+	private final Map<Integer, Page> pages = new LinkedHashMap<Integer, Page>(
+			16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Entry<Integer, Page> eldest) {
+			if (size() <= pageCacheSize)
+				return false;
+			if (_ids == null)
+				for (Object id : eldest.getValue().ids)
+					idIndexes.remove(id);
+			return true;
+		}
+	};
+
+	/**
+	 * Note that the sort order of the cursor is lost when the container is
+	 * sorted, filtered or refreshed.
+	 */
 	public DBCollectionContainer(DBCollection collection, DBCursor cursor) {
 		this.collection = collection;
+		baseFilter = cursor.getQuery();
+		query = baseFilter;
 		_ids = initIds(cursor);
 		initPropertyIds();
 	}
@@ -98,16 +191,17 @@ public class DBCollectionContainer extends AbstractContainer implements
 		List<DBObject> x = cursor.toArray();
 		List<Object> _ids = new ArrayList<Object>(x.size());
 		for (DBObject o : x) {
-			_ids.add(o.get("_id"));
+			Object id = o.get("_id");
+			idIndexes.put(id, _ids.size());
+			_ids.add(id);
 		}
 		return _ids;
 	}
 
 	private void initPropertyIds() {
-		if (propertyIds.isEmpty()) {
-			getPage();
+		if (propertyIds.isEmpty() && size() > 0) {
 
-			for (BSONItem b : cachedItems.values())
+			for (BSONItem b : getPage(0).items.values())
 				for (String s : b.getBSONObject().keySet())
 					if (!propertyIds.contains(s))
 						if (!(b.getBSONObject().get(s) instanceof BSONObject)) {
@@ -139,44 +233,193 @@ public class DBCollectionContainer extends AbstractContainer implements
 	public DBCollectionContainer(SchemaDefinition schema,
 			DBCollection collection, DBObject filter, String sortBy,
 			boolean ascending) {
+		this(schema, collection, filter, sortBy, ascending, false);
+	}
+
+	/**
+	 * @param lazy
+	 *            if true, only count the matching documents now, and load the
+	 *            _ids page by page, as they are needed
+	 */
+	public DBCollectionContainer(SchemaDefinition schema,
+			DBCollection collection, DBObject filter, String sortBy,
+			boolean ascending, boolean lazy) {
 		this.collection = collection;
-		DBObject _null = new BasicDBObject();
 		if (filter == null)
-			filter = _null;
-		DBCursor cursor = collection.find(filter, _null);
-		if (sortBy != null) {
-			cursor = cursor.sort(new BasicDBObject(sortBy, ascending ? 1 : -1));
+			filter = new BasicDBObject();
+		baseFilter = filter;
+		query = filter;
+		if (sortBy == null) {
+			sort = getSortOrder(new Object[0], new boolean[] { ascending });
+		} else {
+			sort = getSortOrder(new Object[] { sortBy },
+					new boolean[] { ascending });
 		}
-		_ids = initIds(cursor);
+		if (!lazy) {
+			_ids = new ArrayList<Object>();
+		}
+		runQuery();
 		initPropertyIds(schema);
 	}
 
-	private void getPage() {
-
-		if (_ids.isEmpty())
-			return;
+	private static DBObject getSortOrder(Object[] propertyId,
+			boolean[] ascending) {
+		BasicDBObject order = new BasicDBObject();
+		// the direction of the first property that is actually sorted by
+		Integer direction = null;
+		for (int i = 0; i < propertyId.length; i++) {
+			if (propertyId[i] instanceof String) {
+				int d = ascending[i] ? 1 : -1;
+				order.append((String) propertyId[i], d);
+				if (direction == null)
+					direction = d;
+			}
+		}
+		// make the order well-defined, so that the pages do not overlap
+		if (!order.containsField("_id")) {
+			order.append("_id", direction == null ? 1 : direction);
+		}
+		return order;
+	}
+
+	/**
+	 * loads the _ids for the current query and sort order (or just counts them
+	 * in lazy mode)
+	 */
+	private void runQuery() {
+		pages.clear();
+		idIndexes.clear();
+		lastPage = 0;
+		if (_ids == null) {
+			size = (int) collection.count(query);
+		} else {
+			DBCursor cursor = collection.find(query, new BasicDBObject());
+			if (sort != null)
+				cursor = cursor.sort(sort);
+			_ids = initIds(cursor);
+		}
+	}
 
-		int fromIndex;
-		if (currentOffset < 0) {
-			fromIndex = 0;
+	/**
+	 * Re-runs the query, to pick up changes made to the collection. The
+	 * propertyIds, the sort order and the filters remain as they are.
+	 */
+	public void refresh() {
+		runQuery();
+		fireItemSetChange();
+	}
+
+	/**
+	 * returns the page with the given number, loading it (and the next one in
+	 * the direction we are scrolling) if it is not in the cache
+	 */
+	private Page getPage(int pageNumber) {
+		int direction = pageNumber < lastPage ? -1 : 1;
+		lastPage = pageNumber;
+
+		Page p = pages.get(pageNumber);
+		if (p != null)
+			return p;
+
+		int lastPageNumber = (size() - 1) / pageLength;
+		int prefetch = pageNumber + direction;
+		if (prefetch < 0 || prefetch > lastPageNumber
+				|| pages.containsKey(prefetch) || pageCacheSize < 2) {
+			loadPages(pageNumber, 1);
+		} else {
+			loadPages(Math.min(pageNumber, prefetch), 2);
+		}
+		return pages.get(pageNumber);
+	}
+
+	/**
+	 * loads consecutive pages with a single query, and puts them into the cache
+	 */
+	private void loadPages(int firstPage, int pageCount) {
+		int fromIndex = firstPage * pageLength;
+		int toIndex = Math.min(fromIndex + pageCount * pageLength, size());
+
+		List<Object> pageIds;
+		Map<Object, BSONItem> loaded = new HashMap<Object, BSONItem>(
+				(toIndex - fromIndex) * 2);
+
+		if (_ids == null) {
+			// the page brings its _ids along
+			pageIds = new ArrayList<Object>(toIndex - fromIndex);
+			for (DBObject o : collection.find(query, getFieldsToLoad()).sort(
+					sort).skip(fromIndex).limit(toIndex - fromIndex)) {
+				Object id = o.get("_id");
+				pageIds.add(id);
+				loaded.put(id, new BSONItem(o));
+			}
 		} else {
-			cachedItems.clear();
-			itemIndexes.clear();
-			fromIndex = currentOffset + pageLength;
+			pageIds = new ArrayList<Object>(_ids.subList(fromIndex, toIndex));
+			// $in does not preserve the order, we put it back below
+			for (DBObject o : collection.find(new BasicDBObject("_id",
+					new BasicDBObject("$in", pageIds)), getFieldsToLoad())) {
+				loaded.put(o.get("_id"), new BSONItem(o));
+			}
 		}
 
-		int toIndex = fromIndex + pageLength;
-		if (toIndex >= _ids.size()) {
-			toIndex = _ids.size() - 1;
+		for (int i = 0; i < pageCount; i++) {
+			int from = Math.min(i * pageLength, pageIds.size());
+			int to = Math.min(from + pageLength, pageIds.size());
+			List<Object> ids = new ArrayList<Object>(pageIds.subList(from, to));
+			Map<Object, BSONItem> items = new HashMap<Object, BSONItem>(ids
+					.size() * 2);
+			int idx = fromIndex + from;
+			for (Object id : ids) {
+				BSONItem b = loaded.get(id);
+				// could have been deleted in the meantime
+				if (b != null)
+					items.put(id, b);
+				if (_ids == null)
+					idIndexes.put(id, idx);
+				idx++;
+			}
+			pages.put(firstPage + i, new Page(ids, items));
 		}
-		// TODO: is there a way to do bulk loading?
-		int idx = fromIndex;
-		for (Object id : _ids.subList(fromIndex, toIndex)) {
-			// TODO: only load the fields we need
-			cachedItems.put(id, new BSONItem(collection.findOne(id)));
-			itemIndexes.put(idx++, id);
+	}
+
+	/**
+	 * Returns the projection that loads only the fields for the propertyIds of
+	 * this container (nested properties such as "a.x" load just the nested
+	 * field), or null (= the whole document) if no propertyIds are known yet.
+	 */
+	private DBObject getFieldsToLoad() {
+		if (fieldsToLoad != null)
+			return fieldsToLoad;
+		if (propertyIds.isEmpty())
+			return null;
+		BasicDBObject fields = new BasicDBObject();
+		for (String p : propertyIds) {
+			if (!isParentPropertyLoaded(p))
+				fields.put(p, 1);
 		}
-		currentOffset = fromIndex;
+		fieldsToLoad = fields;
+		return fields;
+	}
+
+	// "a.x" is already covered if there is a property "a"
+	private boolean isParentPropertyLoaded(String propertyId) {
+		int idx = propertyId.indexOf('.');
+		while (idx > -1) {
+			if (propertyIds.contains(propertyId.substring(0, idx)))
+				return true;
+			idx = propertyId.indexOf('.', idx + 1);
+		}
+		return false;
+	}
+
+	/**
+	 * the set of fields to load has changed, so the cached items may be
+	 * incomplete
+	 */
+	private void propertiesChanged() {
+		fieldsToLoad = null;
+		pages.clear();
+		if (_ids == null)
+			idIndexes.clear();
 	}
 
 	public boolean addContainerProperty(Object propertyId, Class<?> type,
@@ -191,6 +434,8 @@ public class DBCollectionContainer extends AbstractContainer implements
 		String pid = (String) propertyId;
 		propertyIds.add(pid);
 		propertyTypes.put(pid, type);
+		propertiesChanged();
+		fireContainerPropertySetChange();
 		return true;
 
 	}
@@ -206,7 +451,12 @@ public class DBCollectionContainer extends AbstractContainer implements
 	}
 
 	public boolean containsId(Object itemId) {
-		return _ids.contains(itemId);
+		if (idIndexes.containsKey(itemId))
+			return true;
+		if (_ids != null)
+			return false;
+		return collection.count(new BasicDBObject("$and", Arrays.asList(
+				query, new BasicDBObject("_id", itemId)))) > 0;
 	}
 
 	public Property getContainerProperty(Object itemId, Object propertyId) {
@@ -222,22 +472,35 @@ public class DBCollectionContainer extends AbstractContainer implements
 	}
 
 	public Item getItem(Object itemId) {
-		BSONItem cached = cachedItems.get(itemId);
-		if (cached != null)
-			return cached;
+		// load the whole page around it, the Table will want the
+		// neighbours, too
+		int idx = indexOfId(itemId);
+		if (idx > -1) {
+			return getPage(idx / pageLength).items.get(itemId);
+		}
 
-		BSONObject b = collection.findOne(itemId);
+		BSONObject b = collection.findOne(itemId, getFieldsToLoad());
 		if (b == null)
 			return null;
 
-		BSONItem i = new BSONItem(b);
-		cachedItems.put(itemId, i);
-
-		return i;
+		return new BSONItem(b);
 	}
 
 	public Collection<?> getItemIds() {
-		return Collections.unmodifiableCollection(_ids);
+		if (_ids != null)
+			return Collections.unmodifiableCollection(_ids);
+		// loads the pages as it goes
+		return new AbstractList<Object>() {
+			@Override
+			public Object get(int index) {
+				return getIdByIndex(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
 	}
 
 	public Class<?> getType(Object propertyId) {
@@ -249,10 +512,148 @@ public class DBCollectionContainer extends AbstractContainer implements
 		return false;
 	}
 
+	/**
+	 * All properties can be sorted by (MongoDB does not care what is in
+	 * there).
+	 */
+	public Collection<?> getSortableContainerPropertyIds() {
+		return getContainerPropertyIds();
+	}
+
+	public void sort(Object[] propertyId, boolean[] ascending) {
+		sort = getSortOrder(propertyId, ascending);
+		refresh();
+	}
+
+	/**
+	 * Filters are translated into MongoDB queries. Supported are the filters
+	 * from Compare, IsNull, SimpleStringFilter (as a regular expression), and
+	 * their combination with And, Or, and Not.
+	 */
+	public void addContainerFilter(Filter filter)
+			throws UnsupportedFilterException {
+		// fail before we add it
+		toQuery(filter);
+		filters.add(filter);
+		filtersChanged();
+	}
+
+	public void removeContainerFilter(Filter filter) {
+		if (filters.remove(filter))
+			filtersChanged();
+	}
+
+	public void removeAllContainerFilters() {
+		if (filters.isEmpty())
+			return;
+		filters.clear();
+		filtersChanged();
+	}
+
+	private void filtersChanged() {
+		List<DBObject> parts = new ArrayList<DBObject>(filters.size() + 1);
+		if (!baseFilter.keySet().isEmpty())
+			parts.add(baseFilter);
+		for (Filter f : filters)
+			parts.add(toQuery(f));
+		if (parts.isEmpty())
+			query = new BasicDBObject();
+		else if (parts.size() == 1)
+			query = parts.get(0);
+		else
+			query = new BasicDBObject("$and", parts);
+		refresh();
+	}
+
+	static DBObject toQuery(Filter filter) throws UnsupportedFilterException {
+		if (filter instanceof Compare) {
+			Compare c = (Compare) filter;
+			String field = getFieldName(c, c.getPropertyId());
+			Object value = c.getValue();
+			switch (c.getOperation()) {
+			case EQUAL:
+				return new BasicDBObject(field, value);
+			case GREATER:
+				return new BasicDBObject(field, new BasicDBObject("$gt", value));
+			case LESS:
+				return new BasicDBObject(field, new BasicDBObject("$lt", value));
+			case GREATER_OR_EQUAL:
+				return new BasicDBObject(field,
+						new BasicDBObject("$gte", value));
+			case LESS_OR_EQUAL:
+				return new BasicDBObject(field,
+						new BasicDBObject("$lte", value));
+			}
+		}
+		if (filter instanceof IsNull) {
+			IsNull n = (IsNull) filter;
+			// also matches missing fields, just like the property would be
+			// null
+			return new BasicDBObject(getFieldName(n, n.getPropertyId()), null);
+		}
+		if (filter instanceof SimpleStringFilter) {
+			SimpleStringFilter f = (SimpleStringFilter) filter;
+			String regex = Pattern.quote(f.getFilterString());
+			if (f.isOnlyMatchPrefix())
+				regex = "^" + regex;
+			int flags = f.isIgnoreCase() ? Pattern.CASE_INSENSITIVE : 0;
+			return new BasicDBObject(getFieldName(f, f.getPropertyId()),
+					Pattern.compile(regex, flags));
+		}
+		if (filter instanceof And) {
+			return new BasicDBObject("$and", toQueries(((And) filter)
+					.getFilters()));
+		}
+		if (filter instanceof Or) {
+			return new BasicDBObject("$or", toQueries(((Or) filter)
+					.getFilters()));
+		}
+		if (filter instanceof Not) {
+			DBObject negated = toQuery(((Not) filter).getFilter());
+			return new BasicDBObject("$nor", Arrays.asList(negated));
+		}
+		throw new UnsupportedFilterException("cannot translate " + filter
+				+ " into a MongoDB query");
+	}
+
+	private static List<DBObject> toQueries(Collection<Filter> filters) {
+		List<DBObject> l = new ArrayList<DBObject>(filters.size());
+		for (Filter f : filters)
+			l.add(toQuery(f));
+		return l;
+	}
+
+	private static String getFieldName(Filter filter, Object propertyId) {
+		if (propertyId instanceof String)
+			return (String) propertyId;
+		throw new UnsupportedFilterException("cannot translate " + filter
+				+ " into a MongoDB query: propertyId is not a field name");
+	}
+
+	@Override
+	public void addListener(ItemSetChangeListener listener) {
+		super.addListener(listener);
+	}
+
+	@Override
+	public void removeListener(ItemSetChangeListener listener) {
+		super.removeListener(listener);
+	}
+
+	/**
+	 * Removing properties that are not displayed reduces the amount of data
+	 * loaded for every item.
+	 */
 	public boolean removeContainerProperty(Object propertyId)
 			throws UnsupportedOperationException {
-		// TODO Auto-generated method stub
-		return false;
+		if (!propertyIds.remove(propertyId))
+			return false;
+		propertyTypes.remove(propertyId);
+		propertyReadOnly.remove(propertyId);
+		propertyNullable.remove(propertyId);
+		propertiesChanged();
+		fireContainerPropertySetChange();
+		return true;
 	}
 
 	public boolean removeItem(Object itemId)
@@ -261,7 +662,23 @@ public class DBCollectionContainer extends AbstractContainer implements
 		return false;
 	}
 
+	/**
+	 * sets the number of pages (of DEFAULT_PAGE_LENGTH items) to keep in the
+	 * cache. This also clears the cache.
+	 */
+	public void setPageCacheSize(int pageCacheSize) {
+		if (pageCacheSize < 1)
+			throw new IllegalArgumentException(
+					"need to cache at least one page, not " + pageCacheSize);
+		this.pageCacheSize = pageCacheSize;
+		pages.clear();
+		if (_ids == null)
+			idIndexes.clear();
+	}
+
 	public int size() {
+		if (_ids == null)
+			return size;
 		return _ids.size();
 	}
 
@@ -278,48 +695,50 @@ public class DBCollectionContainer extends AbstractContainer implements
 	}
 
 	public Object firstItemId() {
-		return _ids.get(0);
+		if (size() == 0)
+			return null;
+		return getIdByIndex(0);
 	}
 
 	public boolean isFirstId(Object itemId) {
-		if (!_ids.get(0).equals(itemId))
+		if (itemId == null || !itemId.equals(firstItemId()))
 			return false;
 		return true;
 	}
 
 	public boolean isLastId(Object itemId) {
-		int idx = _ids.size() - 1;
-		if (!_ids.get(idx).equals(itemId))
+		if (itemId == null)
+			return false;
+		if (_ids == null) {
+			// avoid loading the last page if we can
+			int idx = indexOfId(itemId);
+			if (idx > -1)
+				return idx == size - 1;
+		}
+		if (!itemId.equals(lastItemId()))
 			return false;
 		return true;
 	}
 
 	public Object lastItemId() {
-		int idx = _ids.size() - 1;
-		return _ids.get(idx);
+		int idx = size() - 1;
+		if (idx < 0)
+			return null;
+		return getIdByIndex(idx);
 	}
 
 	public Object nextItemId(Object itemId) {
-		// TODO: linear search, not so nice
-		boolean theNext = false;
-		for (Object id : _ids) {
-			if (theNext)
-				return id;
-			if (itemId.equals(id))
-				theNext = true;
-		}
-		return null;
+		int idx = indexOfId(itemId);
+		if (idx == -1 || idx + 1 >= size())
+			return null;
+		return getIdByIndex(idx + 1);
 	}
 
 	public Object prevItemId(Object itemId) {
-		// TODO: linear search, not so nice
-		Object prev = null;
-		for (Object id : _ids) {
-			if (itemId.equals(id))
-				return prev;
-			prev = id;
-		}
-		return null;
+		int idx = indexOfId(itemId);
+		if (idx < 1)
+			return null;
+		return getIdByIndex(idx - 1);
 	}
 
 	public Object addItemAt(int index) throws UnsupportedOperationException {
@@ -334,11 +753,28 @@ public class DBCollectionContainer extends AbstractContainer implements
 	}
 
 	public Object getIdByIndex(int index) {
-		return _ids.get(index);
+		if (_ids != null)
+			return _ids.get(index);
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size);
+		List<Object> ids = getPage(index / pageLength).ids;
+		int i = index % pageLength;
+		// the collection could have shrunk in the meantime
+		if (i >= ids.size())
+			return null;
+		return ids.get(i);
 	}
 
+	/**
+	 * In lazy mode, only the _ids on the cached pages are known, for all others
+	 * this returns -1
+	 */
 	public int indexOfId(Object itemId) {
-		return _ids.indexOf(itemId);
+		Integer idx = idIndexes.get(itemId);
+		if (idx == null)
+			return -1;
+		return idx;
 	}
 
 }
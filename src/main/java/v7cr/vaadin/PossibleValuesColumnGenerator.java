@@ -21,9 +21,11 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
+import v7cr.v7db.FieldPath;
 import v7cr.v7db.LocalizedString;
 import v7cr.v7db.SchemaDefinition;
 
+import com.vaadin.data.Item;
 import com.vaadin.ui.Component;
 import com.vaadin.ui.Label;
 import com.vaadin.ui.Table;
@@ -32,13 +34,13 @@ import com.vaadin.ui.Table.ColumnGenerator;
 @SuppressWarnings("serial")
 public class PossibleValuesColumnGenerator implements ColumnGenerator {
 
-	private final String field;
+	private final FieldPath field;
 
 	private final Map<Object, String> names = new HashMap<Object, String>();
 
 	public PossibleValuesColumnGenerator(SchemaDefinition d, String field,
 			Locale l) {
-		this.field = field;
+		this.field = FieldPath.get(field);
 		SchemaDefinition fieldSchema = d.getFieldDefinition(field);
 		if (fieldSchema != null) {
 			Object[] pv = fieldSchema.getPossibleValues();
@@ -55,9 +57,17 @@ public class PossibleValuesColumnGenerator implements ColumnGenerator {
 	}
 
 	public Component generateCell(Table source, Object itemId, Object columnId) {
-		Object value = source.getItem(itemId).getItemProperty(field).getValue();
+		Item item = source.getItem(itemId);
+		Object value;
+		if (item instanceof BSONItem) {
+			value = field.resolve((Map<?, ?>) ((BSONItem) item).getBSONObject());
+		} else {
+			value = item.getItemProperty(field.toString()).getValue();
+		}
+		if (value == null)
+			return new Label();
 		String name = names.get(value);
-		if (names != null)
+		if (name != null)
 			return new Label(name);
 		return new Label(value.toString());
 	}
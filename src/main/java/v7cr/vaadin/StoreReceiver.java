@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.vaadin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import v7cr.v7db.FileStore;
+import v7cr.v7db.FileUpload;
+
+/**
+ * Receives an upload into a FileStore. Small uploads are collected in memory,
+ * and stored when they are complete. Once an upload gets larger than the
+ * threshold, it is forwarded to the store while it arrives. Either way, the
+ * SHA-1 is computed on the way, without reading the contents again.
+ */
+
+public class StoreReceiver extends OutputStream {
+
+	private final FileStore store;
+
+	private final int threshold;
+
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+	private FileUpload upload;
+
+	private long length;
+
+	private boolean aborted;
+
+	public StoreReceiver(FileStore store, int threshold) {
+		this.store = store;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkNotAborted();
+		if (upload == null && buffer.size() + 1 > threshold) {
+			startUpload();
+		}
+		if (upload != null)
+			upload.write(b);
+		else
+			buffer.write(b);
+		length++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkNotAborted();
+		if (upload == null && buffer.size() + len > threshold) {
+			startUpload();
+		}
+		if (upload != null)
+			upload.write(b, off, len);
+		else
+			buffer.write(b, off, len);
+		length += len;
+	}
+
+	private void checkNotAborted() throws IOException {
+		if (aborted)
+			throw new IOException("the upload has been aborted");
+	}
+
+	private void startUpload() throws IOException {
+		upload = store.upload();
+		buffer.writeTo(upload);
+		buffer = null;
+	}
+
+	/**
+	 * does not store anything, because Vaadin also closes the stream when the
+	 * upload failed
+	 */
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * stores the upload
+	 * 
+	 * @return the SHA-1
+	 */
+	public String finish() throws IOException {
+		checkNotAborted();
+		if (upload == null) {
+			startUpload();
+		}
+		upload.close();
+		return upload.getSHA();
+	}
+
+	/**
+	 * @return the number of bytes received
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * discards what has been received so far
+	 */
+	public void abort() {
+		aborted = true;
+		buffer = null;
+		if (upload != null)
+			upload.abort();
+	}
+
+}
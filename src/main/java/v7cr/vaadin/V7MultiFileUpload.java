@@ -17,7 +17,6 @@
 
 package v7cr.vaadin;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
@@ -26,12 +25,11 @@ import java.util.LinkedList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.vaadin.easyuploads.DirectoryFileFactory;
-import org.vaadin.easyuploads.FileBuffer;
-import org.vaadin.easyuploads.FileFactory;
+import org.vaadin.easyuploads.MultiUpload;
 import org.vaadin.easyuploads.MultiUploadHandler;
 import org.vaadin.easyuploads.MultiUpload.FileDetail;
-import org.vaadin.easyuploads.UploadField.FieldType;
+
+import v7cr.v7db.FileStore;
 
 import com.vaadin.event.dd.DragAndDropEvent;
 import com.vaadin.event.dd.DropHandler;
@@ -53,9 +51,9 @@ import com.vaadin.ui.ProgressIndicator;
 import com.vaadin.ui.DragAndDropWrapper.WrapperTransferable;
 
 /**
- * Hacked version of the Vaadin MultiFileUpload, to make it use v7files in proxy
- * mode: the component posts to v7files, v7files proxies to the streamvariable
- * 
+ * Version of the easyuploads MultiFileUpload that does not write every upload
+ * to a temporary file first: the uploads go into the FileStore as they arrive,
+ * see StoreReceiver.
  */
 @SuppressWarnings("serial")
 public abstract class V7MultiFileUpload extends CssLayout implements
@@ -74,12 +72,12 @@ public abstract class V7MultiFileUpload extends CssLayout implements
 	}
 
 	private void prepareUpload() {
-		final FileBuffer receiver = createReceiver();
-
-		final V7MultiUpload upload = new V7MultiUpload();
+		final MultiUpload upload = new MultiUpload();
 		MultiUploadHandler handler = new MultiUploadHandler() {
 			private LinkedList<ProgressIndicator> indicators;
 
+			private StoreReceiver receiver;
+
 			public void streamingStarted(StreamingStartEvent event) {
 			}
 
@@ -87,15 +85,19 @@ public abstract class V7MultiFileUpload extends CssLayout implements
 				if (!indicators.isEmpty()) {
 					progressBars.removeComponent(indicators.remove(0));
 				}
-				File file = receiver.getFile();
-				handleFile(file, event.getFileName(), event.getMimeType(),
-						event.getBytesReceived());
-				receiver.setValue(null);
+				StoreReceiver r = receiver;
+				receiver = null;
+				handleFile(finish(r), event.getFileName(), event.getMimeType(),
+						r.getLength());
 			}
 
 			public void streamingFailed(StreamingErrorEvent event) {
 				Logger.getLogger(getClass().getName()).log(Level.FINE,
 						"Streaming failed", event.getException());
+				if (receiver != null) {
+					receiver.abort();
+					receiver = null;
+				}
 
 				for (ProgressIndicator progressIndicator : indicators) {
 					progressBars.removeComponent(progressIndicator);
@@ -111,10 +113,8 @@ public abstract class V7MultiFileUpload extends CssLayout implements
 			}
 
 			public OutputStream getOutputStream() {
-				FileDetail next = upload.getPendingFileNames().iterator()
-						.next();
-				return receiver.receiveUpload(next.getFileName(), next
-						.getMimeType());
+				receiver = createReceiver();
+				return receiver;
 			}
 
 			public void filesQueued(Collection<FileDetail> pendingFileNames) {
@@ -152,8 +152,8 @@ public abstract class V7MultiFileUpload extends CssLayout implements
 		Iterator<Component> componentIterator = uploads.getComponentIterator();
 		while (componentIterator.hasNext()) {
 			Component next = componentIterator.next();
-			if (next instanceof V7MultiUpload) {
-				V7MultiUpload upload = (V7MultiUpload) next;
+			if (next instanceof MultiUpload) {
+				MultiUpload upload = (MultiUpload) next;
 				if (upload.isVisible()) {
 					upload.setButtonCaption(getUploadButtonCaption());
 				}
@@ -161,41 +161,30 @@ public abstract class V7MultiFileUpload extends CssLayout implements
 		}
 	}
 
-	private FileFactory fileFactory;
-
-	public FileFactory getFileFactory() {
-		if (fileFactory == null) {
-			fileFactory = new TempFileFactory();
-		}
-		return fileFactory;
-	}
-
-	static class TempFileFactory implements FileFactory {
-
-		public File createFile(String fileName, String mimeType) {
-			final String tempFileName = "upload_tmpfile_"
-					+ System.currentTimeMillis();
-			try {
-				return File.createTempFile(tempFileName, null);
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
-		}
+	/**
+	 * @return the store the uploads go into
+	 */
+	protected abstract FileStore getFileStore();
 
+	/**
+	 * @return up to how many bytes of an upload are kept in memory, before it
+	 *         is forwarded to the store while it arrives
+	 */
+	protected int getMemoryThreshold() {
+		return 1024 * 1024;
 	}
 
-	public void setFileFactory(FileFactory fileFactory) {
-		this.fileFactory = fileFactory;
+	protected StoreReceiver createReceiver() {
+		return new StoreReceiver(getFileStore(), getMemoryThreshold());
 	}
 
-	protected FileBuffer createReceiver() {
-		FileBuffer receiver = new FileBuffer(FieldType.FILE) {
-			@Override
-			public FileFactory getFileFactory() {
-				return V7MultiFileUpload.this.getFileFactory();
-			}
-		};
-		return receiver;
+	private static String finish(StoreReceiver receiver) {
+		try {
+			return receiver.finish();
+		} catch (IOException e) {
+			receiver.abort();
+			throw new RuntimeException(e);
+		}
 	}
 
 	protected int getPollinInterval() {
@@ -247,19 +236,11 @@ public abstract class V7MultiFileUpload extends CssLayout implements
 		return false;
 	}
 
-	abstract protected void handleFile(File file, String fileName,
-			String mimeType, long length);
-
 	/**
-	 * A helper method to set DirectoryFileFactory with given pathname as
-	 * directory.
-	 * 
-	 * @param file
+	 * called when an upload has been stored
 	 */
-	public void setRootDirectory(String directoryWhereToUpload) {
-		setFileFactory(new DirectoryFileFactory(
-				new File(directoryWhereToUpload)));
-	}
+	abstract protected void handleFile(String sha, String fileName,
+			String mimeType, long length);
 
 	public AcceptCriterion getAcceptCriterion() {
 		// TODO accept only files
@@ -276,14 +257,11 @@ public abstract class V7MultiFileUpload extends CssLayout implements
 			final ProgressIndicator pi = new ProgressIndicator();
 			pi.setCaption(html5File.getFileName());
 			progressBars.addComponent(pi);
-			final FileBuffer receiver = createReceiver();
+			final StoreReceiver receiver = createReceiver();
 			html5File.setStreamVariable(new StreamVariable() {
 
-				private String name;
-				private String mime;
-
 				public OutputStream getOutputStream() {
-					return receiver.receiveUpload(name, mime);
+					return receiver;
 				}
 
 				public boolean listenProgress() {
@@ -297,20 +275,17 @@ public abstract class V7MultiFileUpload extends CssLayout implements
 				}
 
 				public void streamingStarted(StreamingStartEvent event) {
-					name = event.getFileName();
-					mime = event.getMimeType();
-
 				}
 
 				public void streamingFinished(StreamingEndEvent event) {
 					progressBars.removeComponent(pi);
-					handleFile(receiver.getFile(), html5File.getFileName(),
-							html5File.getType(), html5File.getFileSize());
-					receiver.setValue(null);
+					handleFile(finish(receiver), html5File.getFileName(),
+							html5File.getType(), receiver.getLength());
 				}
 
 				public void streamingFailed(StreamingErrorEvent event) {
 					progressBars.removeComponent(pi);
+					receiver.abort();
 				}
 
 				public boolean isInterrupted() {
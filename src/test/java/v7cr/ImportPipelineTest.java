@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+
+import v7cr.v7db.BatchInserter;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+
+public class ImportPipelineTest {
+
+	private final Map<String, DBCollection> collections = new HashMap<String, DBCollection>();
+
+	private DBCollection reviews;
+
+	private DBCollection imports;
+
+	private ImportPipeline pipeline;
+
+	@Captor
+	private ArgumentCaptor<List<DBObject>> batches;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+		reviews = mock(DBCollection.class);
+		imports = mock(DBCollection.class);
+		collections.put("reviews", reviews);
+		collections.put("imports", imports);
+		// getCollection is final, and calls the protected doGetCollection
+		DB db = mock(DB.class, new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) {
+				if (invocation.getMethod().getName().equals("doGetCollection"))
+					return collections.get(invocation.getArguments()[0]);
+				return null;
+			}
+		});
+		pipeline = new ImportPipeline(new SVNImporter(db), "test",
+				new BatchInserter(reviews, 100, 60000, null));
+	}
+
+	private static SVNLogEntry entry(long rev) {
+		return new SVNLogEntry(new HashMap<String, SVNLogEntryPath>(), rev,
+				"author", new Date(), "commit " + rev);
+	}
+
+	@Test
+	public void testImport() throws Exception {
+		pipeline.start();
+		// nothing arrives for longer than the stages wait for their input
+		Thread.sleep(1500);
+		pipeline.handleLogEntry(entry(1));
+		pipeline.handleLogEntry(entry(2));
+		pipeline.checkpoint(2);
+		pipeline.handleLogEntry(entry(3));
+		pipeline.finish();
+
+		verify(reviews, times(2)).insert(batches.capture(),
+				eq(WriteConcern.SAFE));
+		List<DBObject> first = batches.getAllValues().get(0);
+		assertEquals(2, first.size());
+		assertEquals("commit 1", first.get(0).get("t"));
+		assertEquals(1, first.get(0).get("_version"));
+		assertEquals(1, batches.getAllValues().get(1).size());
+		verify(imports).update(new BasicDBObject("_id", "test"),
+				new BasicDBObject("$set", new BasicDBObject("rev", 2L)), true,
+				false);
+	}
+
+	@Test(expected = MongoException.class)
+	public void testWriteFailure() throws Exception {
+		doThrow(new MongoException("down")).when(reviews).insert(
+				anyListOf(DBObject.class), any(WriteConcern.class));
+		pipeline.start();
+		pipeline.handleLogEntry(entry(1));
+		pipeline.checkpoint(1);
+		pipeline.finish();
+	}
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class AppendOnlyListTest {
+
+	@Test
+	public void testPlus() {
+		AppendOnlyList empty = AppendOnlyList.copyOf(Collections.emptyList());
+		AppendOnlyList a = empty.plus("a");
+		AppendOnlyList ab = a.plus("b");
+		AppendOnlyList abcdef = ab.plus("c", "d", "e", "f");
+		assertEquals(0, empty.size());
+		assertEquals(Arrays.asList("a"), a);
+		assertEquals(Arrays.asList("a", "b"), ab);
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), abcdef);
+	}
+
+	@Test
+	public void testBranches() {
+		AppendOnlyList ab = AppendOnlyList.copyOf(Arrays.asList("a", "b"));
+		AppendOnlyList abc = ab.plus("c");
+		// the space after "b" is taken, so this must not overwrite "c"
+		AppendOnlyList abx = ab.plus("x");
+		assertEquals(Arrays.asList("a", "b", "c"), abc);
+		assertEquals(Arrays.asList("a", "b", "x"), abx);
+		assertEquals(Arrays.asList("a", "b"), ab);
+		assertEquals(Arrays.asList("a", "b", "c", "d"), abc.plus("d"));
+		assertEquals(Arrays.asList("a", "b", "x", "y"), abx.plus("y"));
+	}
+
+	@Test
+	public void testWithoutLast() {
+		AppendOnlyList abc = AppendOnlyList.copyOf(Arrays.asList("a", "b",
+				"c"));
+		AppendOnlyList ab = abc.withoutLast();
+		AppendOnlyList abx = ab.plus("x");
+		assertEquals(Arrays.asList("a", "b", "c"), abc);
+		assertEquals(Arrays.asList("a", "b"), ab);
+		assertEquals(Arrays.asList("a", "b", "x"), abx);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetBeyondSize() {
+		// the element is in the shared buffer, but not in this list
+		AppendOnlyList a = AppendOnlyList.copyOf(Arrays.asList("a"));
+		a.plus("b");
+		a.get(1);
+	}
+
+	@Test
+	public void testPushKeepsOldVersions() {
+		BSONBackedObject o = BSONBackedObject.start().push("v", "1");
+		BSONBackedObject o2 = o.push("v", "2");
+		BSONBackedObject o3 = o.push("v", "3");
+		assertArrayEquals(new String[] { "1" }, o.getStringFieldAsArray("v"));
+		assertArrayEquals(new String[] { "1", "2" }, o2
+				.getStringFieldAsArray("v"));
+		assertArrayEquals(new String[] { "1", "3" }, o3
+				.getStringFieldAsArray("v"));
+		assertArrayEquals(new String[] { "1" }, o2.popLast("v")
+				.getStringFieldAsArray("v"));
+		assertArrayEquals(new String[] { "1", "2" }, o2
+				.getStringFieldAsArray("v"));
+	}
+
+}
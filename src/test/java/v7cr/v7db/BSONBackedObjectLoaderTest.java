@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.BSON;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+import org.bson.types.BasicBSONList;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+public class BSONBackedObjectLoaderTest {
+
+	static BasicBSONObject sample() {
+		List<Object> votes = new ArrayList<Object>();
+		votes.add(new BasicBSONObject("by", new BasicBSONObject("_id",
+				"a@b.c").append("n", "A")).append("v", "+"));
+		votes.add(new BasicBSONObject("by", new BasicBSONObject("_id",
+				"x@y.z").append("n", "X")).append("v", "-"));
+		return new BasicBSONObject("p", "project").append("_id",
+				new ObjectId()).append("c", new Date()).append("n", 42)
+				.append("l", 42L).append("d", 0.5).append("b", true).append(
+						"v", votes).append("a",
+						new Object[] { "x", new BasicBSONObject("y", 1) })
+				.append("svn", new BasicBSONObject("rev", 12).append("paths",
+						Arrays.asList("/a", "/b")));
+	}
+
+	@Test
+	public void testCopySameAsEncodeDecode() {
+		BasicBSONObject o = sample();
+		BSONObject decoded = BSON.decode(BSON.encode(o));
+		BasicBSONObject copy = BSONBackedObjectLoader.copy(o);
+		assertEquals(decoded, copy);
+		// including the field order (_id first) and the types
+		assertEquals(new ArrayList<String>(decoded.keySet()),
+				new ArrayList<String>(copy.keySet()));
+		assertEquals(BasicBSONList.class, copy.get("v").getClass());
+		assertEquals(BasicBSONList.class, copy.get("a").getClass());
+		assertEquals(BasicBSONObject.class, ((List<?>) copy.get("v")).get(0)
+				.getClass());
+	}
+
+	@Test
+	public void testCopyIsIndependent() {
+		BasicBSONObject o = sample();
+		BasicBSONObject copy = BSONBackedObjectLoader.copy(o);
+		BasicBSONObject expected = BSONBackedObjectLoader.copy(o);
+
+		((BSONObject) o.get("svn")).put("rev", 13);
+		((List<?>) ((BSONObject) o.get("svn")).get("paths")).set(0, null);
+		@SuppressWarnings("unchecked")
+		List<Object> votes = (List<Object>) o.get("v");
+		((BSONObject) ((BSONObject) votes.get(0)).get("by")).put("n", "B");
+		votes.add("more");
+		((Object[]) o.get("a"))[0] = "changed";
+		((Date) o.get("c")).setTime(0);
+
+		assertEquals(expected, copy);
+		assertNotSame(o.get("c"), copy.get("c"));
+		// immutable values are shared
+		assertSame(o.get("_id"), copy.get("_id"));
+		assertSame(o.get("p"), copy.get("p"));
+	}
+
+	@Test
+	public void testCopyBinary() {
+		byte[] data = { 1, 2, 3 };
+		BasicBSONObject copy = BSONBackedObjectLoader
+				.copy(new BasicBSONObject("data", data));
+		data[0] = 0;
+		assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) copy.get("data"));
+	}
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package v7cr.v7db;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BSON;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.MongoException;
+
+public class BatchInserterTest {
+
+	/**
+	 * what is in the collection, by _id
+	 */
+	private final Map<Object, DBObject> stored = new LinkedHashMap<Object, DBObject>();
+
+	private final List<DBObject> duplicates = new ArrayList<DBObject>();
+
+	private BatchInserter inserter;
+
+	@Before
+	public void setUp() {
+		// the finds are final and call the package-private __find,
+		// so the collection is a mock that keeps the objects in a map
+		DBCollection collection = mock(DBCollection.class,
+				new Answer<Object>() {
+					public Object answer(InvocationOnMock invocation) {
+						String method = invocation.getMethod().getName();
+						Object[] args = invocation.getArguments();
+						if (method.equals("insert")) {
+							insert(args[0]);
+						} else if (method.equals("getDBDecoderFactory")) {
+							return DefaultDBDecoder.FACTORY;
+						} else if (method.equals("__find")) {
+							return find((DBObject) args[0]);
+						}
+						return null;
+					}
+				});
+		inserter = new BatchInserter(collection, 10, 60000,
+				new BatchInserter.DuplicateHandler() {
+					public void duplicate(DBObject object,
+							MongoException.DuplicateKey e) {
+						duplicates.add(object);
+					}
+				});
+	}
+
+	// like the server: stops at the first duplicate
+	private void insert(Object objects) {
+		Collection<?> list = objects instanceof DBObject ? Collections
+				.singleton(objects) : (Collection<?>) objects;
+		for (Object o : list) {
+			DBObject d = (DBObject) o;
+			if (stored.containsKey(d.get("_id")))
+				throw mock(MongoException.DuplicateKey.class);
+			stored.put(d.get("_id"), copy(d));
+		}
+	}
+
+	private Iterator<DBObject> find(DBObject query) {
+		List<?> ids = (List<?>) ((DBObject) query.get("_id")).get("$in");
+		List<DBObject> result = new ArrayList<DBObject>();
+		for (DBObject o : stored.values())
+			if (ids.contains(o.get("_id")))
+				result.add(copy(o));
+		return result.iterator();
+	}
+
+	private static DBObject copy(DBObject o) {
+		return new BasicDBObject(BSON.decode(BSON.encode(o)).toMap());
+	}
+
+	private static DBObject review(Object id) {
+		return new BasicDBObject("_id", id).append("t", "review " + id);
+	}
+
+	@Test
+	public void testBatch() {
+		inserter.insert(review("a"));
+		inserter.insert(review("b"));
+		assertEquals(2, inserter.getBufferedCount());
+		assertEquals(0, stored.size());
+		assertEquals(2, inserter.flush());
+		assertEquals(2, stored.size());
+		assertEquals(1, stored.get("a").get(Versioning.VERSION));
+		assertEquals(2, inserter.getInsertedCount());
+		assertEquals(0, inserter.getBufferedCount());
+	}
+
+	@Test
+	public void testBatchSize() {
+		for (int i = 0; i < 25; i++)
+			inserter.insert(review(i));
+		assertEquals(20, stored.size());
+		assertEquals(5, inserter.getBufferedCount());
+	}
+
+	@Test
+	public void testDuplicate() {
+		// inserted before, with other contents
+		stored.put("b", new BasicDBObject("_id", "b").append(
+				Versioning.VERSION, 3));
+		inserter.insert(review("a"));
+		inserter.insert(review("b"));
+		inserter.insert(review("c"));
+		assertEquals(2, inserter.flush());
+		assertEquals(1, duplicates.size());
+		assertEquals("b", duplicates.get(0).get("_id"));
+		assertEquals(2, inserter.getInsertedCount());
+		assertEquals(1, inserter.getDuplicateCount());
+		assertEquals(3, stored.get("b").get(Versioning.VERSION));
+		assertEquals("review c", stored.get("c").get("t"));
+	}
+
+	@Test
+	public void testDuplicateFirst() {
+		stored.put("a", new BasicDBObject("_id", "a"));
+		// an older object with the same _id after the failing one
+		stored.put("c", new BasicDBObject("_id", "c"));
+		inserter.insert(review("a"));
+		inserter.insert(review("b"));
+		inserter.insert(review("c"));
+		assertEquals(1, inserter.flush());
+		assertEquals(2, inserter.getDuplicateCount());
+		assertEquals("a", duplicates.get(0).get("_id"));
+		assertEquals("c", duplicates.get(1).get("_id"));
+		assertEquals("review b", stored.get("b").get("t"));
+	}
+
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import org.bson.BSON;
+import org.bson.BasicBSONObject;
+
+/**
+ * Compares BSONBackedObjectLoader.copy with the encode/decode round trip it
+ * replaced. Run with
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=v7cr.v7db.CopyBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+
+public class CopyBenchmark {
+
+	private static final int ITERATIONS = 200000;
+
+	// keeps the JIT from dropping the copies
+	private static int sink;
+
+	public static void main(String[] args) {
+		BasicBSONObject o = BSONBackedObjectLoaderTest.sample();
+		for (int round = 0; round < 5; round++) {
+			long copy = time(o, true);
+			long bson = time(o, false);
+			System.out.printf("round %d: copy %d ns/op, encode/decode %d ns/op%n",
+					round, copy, bson);
+		}
+		System.out.println(sink);
+	}
+
+	private static long time(BasicBSONObject o, boolean copy) {
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			if (copy)
+				sink += BSONBackedObjectLoader.copy(o).size();
+			else
+				sink += BSON.decode(BSON.encode(o)).keySet().size();
+		}
+		return (System.nanoTime() - start) / ITERATIONS;
+	}
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.bson.BasicBSONObject;
+import org.junit.Test;
+
+public class FieldPathTest {
+
+	@Test
+	public void testSegments() {
+		FieldPath p = FieldPath.get("by.n");
+		assertTrue(p.isNested());
+		assertEquals(2, p.length());
+		assertEquals("by", p.getSegment(0));
+		assertEquals("n", p.getLastSegment());
+		assertEquals("by.n", p.toString());
+
+		FieldPath top = FieldPath.get("c");
+		assertFalse(top.isNested());
+		assertEquals("c", top.getLastSegment());
+	}
+
+	@Test
+	public void testInterned() throws Exception {
+		FieldPath p = FieldPath.get("a.b.c");
+		assertSame(p, FieldPath.get(new String("a.b.c")));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(p);
+		out.close();
+		Object read = new ObjectInputStream(new ByteArrayInputStream(bytes
+				.toByteArray())).readObject();
+		assertSame(p, read);
+	}
+
+	@Test
+	public void testLookupDoesNotIntern() {
+		FieldPath p = FieldPath.lookup("vc.someone");
+		assertNotSame(p, FieldPath.lookup("vc.someone"));
+		assertEquals(p, FieldPath.lookup("vc.someone"));
+		assertEquals(2, p.length());
+
+		// but finds the interned ones
+		FieldPath i = FieldPath.get("vc.someone");
+		assertSame(i, FieldPath.get("vc.someone"));
+		assertSame(i, FieldPath.lookup("vc.someone"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNull() {
+		FieldPath.get(null);
+	}
+
+	@Test
+	public void testResolve() {
+		BasicBSONObject o = new BasicBSONObject("by", new BasicBSONObject(
+				"n", "Name")).append("c", 1);
+		assertEquals("Name", FieldPath.get("by.n").resolve(o));
+		assertEquals(1, FieldPath.get("c").resolve(o));
+		assertNull(FieldPath.get("by.x").resolve(o));
+		assertNull(FieldPath.get("x.n").resolve(o));
+		// not an object
+		assertNull(FieldPath.get("c.n").resolve(o));
+
+		assertSame(o.get("by"), FieldPath.get("by.n").resolveParent(o));
+		assertSame(o, FieldPath.get("c").resolveParent(o));
+		assertNull(FieldPath.get("c.n.x").resolveParent(o));
+	}
+
+	@Test
+	public void testBSONBackedObjectAccess() {
+		BSONBackedObject o = BSONBackedObject.start().append("by.n", "Name")
+				.append("by._id", "a@b.c");
+		assertEquals("Name", o.getStringField(FieldPath.get("by.n")));
+		assertEquals("a@b.c", o.getStringField("by._id"));
+		assertTrue(o.containsField(FieldPath.get("by")));
+		assertFalse(o.containsField(FieldPath.get("by.x")));
+		assertEquals("Name", o.getObjectField(FieldPath.get("by"))
+				.getStringField("n"));
+	}
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalFileStoreTest {
+
+	// echo -n hello | sha1sum
+	static final String HELLO = "aaf4c61ddcc5e8a2dabede0f3b482cd9aea9434d";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+
+	private LocalFileStore store;
+
+	@Before
+	public void setUp() {
+		root = new File(folder.getRoot(), "store");
+		store = new LocalFileStore(root);
+	}
+
+	static byte[] read(FileStore store, String sha) throws IOException {
+		FileStore.Content c = store.get(sha);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		c.writeTo(Channels.newChannel(out));
+		assertEquals(out.size(), c.getLength());
+		return out.toByteArray();
+	}
+
+	File newFile(byte[] data) throws IOException {
+		File f = folder.newFile("upload" + System.nanoTime());
+		FileOutputStream out = new FileOutputStream(f);
+		out.write(data);
+		out.close();
+		return f;
+	}
+
+	@Test
+	public void testSHA1() {
+		assertEquals(HELLO, SHA1.toHex(SHA1.newDigest().digest(
+				"hello".getBytes())));
+		assertTrue(SHA1.isValid(HELLO));
+		assertFalse(SHA1.isValid(HELLO.toUpperCase()));
+		assertFalse(SHA1.isValid(HELLO.substring(1)));
+		assertFalse(SHA1.isValid("../../../../../../../../../../etc/passwd"));
+		assertFalse(SHA1.isValid(null));
+	}
+
+	@Test
+	public void testStoreStream() throws IOException {
+		assertEquals(HELLO, store.store(new ByteArrayInputStream("hello"
+				.getBytes())));
+		assertArrayEquals("hello".getBytes(), read(store, HELLO));
+		assertTrue(new File(new File(root, "aa"), HELLO.substring(2))
+				.isFile());
+	}
+
+	@Test
+	public void testStoreFile() throws IOException {
+		File f = newFile("hello".getBytes());
+		assertEquals(HELLO, store.store(f));
+		assertTrue(f.isFile());
+		assertArrayEquals("hello".getBytes(), read(store, HELLO));
+	}
+
+	@Test
+	public void testDeduplicate() throws IOException {
+		store.store(new ByteArrayInputStream("hello".getBytes()));
+		store.store(newFile("hello".getBytes()));
+		store.store(new ByteArrayInputStream("hello".getBytes()));
+		// one directory, one file, no temporary files left over
+		assertArrayEquals(new String[] { "aa" }, root.list());
+		assertEquals(1, new File(root, "aa").list().length);
+	}
+
+	@Test
+	public void testLargeFile() throws IOException {
+		byte[] data = new byte[3 * 1024 * 1024 + 17];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 31);
+		String sha = store.store(newFile(data));
+		assertEquals(SHA1.toHex(SHA1.newDigest().digest(data)), sha);
+		assertArrayEquals(data, read(store, sha));
+	}
+
+	@Test
+	public void testMissing() throws IOException {
+		assertNull(store.get(HELLO));
+		assertNull(store.get("not a sha"));
+		assertNull(store.get(null));
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MigratingFileStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LocalFileStore store;
+
+	private LocalFileStore legacy;
+
+	@Before
+	public void setUp() {
+		store = new LocalFileStore(new File(folder.getRoot(), "store"));
+		legacy = new LocalFileStore(new File(folder.getRoot(), "legacy"));
+	}
+
+	@Test
+	public void testCopiedOnFirstAccess() throws IOException {
+		String sha = legacy.store(new ByteArrayInputStream("hello"
+				.getBytes()));
+		MigratingFileStore m = new MigratingFileStore(store, legacy);
+		assertNull(store.get(sha));
+		assertArrayEquals("hello".getBytes(), LocalFileStoreTest.read(m, sha));
+		assertNotNull(store.get(sha));
+	}
+
+	@Test
+	public void testNewContents() throws IOException {
+		MigratingFileStore m = new MigratingFileStore(store, legacy);
+		String sha = m.store(new ByteArrayInputStream("hello".getBytes()));
+		assertNotNull(store.get(sha));
+		assertNull(legacy.get(sha));
+		assertNull(m.get(LocalFileStoreTest.HELLO.replace('a', 'b')));
+	}
+
+	@Test
+	public void testLegacyStoreDown() throws IOException {
+		FileStore down = new FileStore() {
+
+			public String store(File file) {
+				throw new UnsupportedOperationException();
+			}
+
+			public String store(InputStream in) {
+				throw new UnsupportedOperationException();
+			}
+
+			public FileUpload upload() {
+				throw new UnsupportedOperationException();
+			}
+
+			public Content get(String sha) throws IOException {
+				throw new IOException("connection refused");
+			}
+		};
+		MigratingFileStore m = new MigratingFileStore(store, down);
+		assertNull(m.get(LocalFileStoreTest.HELLO));
+		String sha = m.store(new ByteArrayInputStream("hello".getBytes()));
+		assertEquals(LocalFileStoreTest.HELLO, sha);
+	}
+
+}
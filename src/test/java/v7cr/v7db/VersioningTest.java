@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package v7cr.v7db;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.bson.BasicBSONObject;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+
+public class VersioningTest {
+
+	private static BasicBSONObject base() {
+		return new BasicBSONObject("_id", 1).append("_version", 3).append(
+				"a", new BasicBSONObject("x", 1).append("y", 2)).append("b",
+				"b").append("v", Arrays.asList("p", "q", "r"));
+	}
+
+	private static DBObject diff(BasicBSONObject updated) {
+		return Versioning.diff(base(), updated);
+	}
+
+	@Test
+	public void testNoChange() {
+		BasicBSONObject n = base();
+		n.put("_version", 4);
+		assertEquals(new BasicDBObject(), diff(n));
+	}
+
+	@Test
+	public void testSetNested() {
+		BasicBSONObject n = base();
+		((BasicBSONObject) n.get("a")).put("y", 3);
+		n.put("c", "new");
+		assertEquals(new BasicDBObject("$set", new BasicDBObject("a.y", 3)
+				.append("c", "new")), diff(n));
+	}
+
+	@Test
+	public void testUnset() {
+		BasicBSONObject n = base();
+		n.removeField("b");
+		((BasicBSONObject) n.get("a")).removeField("x");
+		assertEquals(new BasicDBObject("$unset", new BasicDBObject("b", 1)
+				.append("a.x", 1)), diff(n));
+	}
+
+	@Test
+	public void testPushAll() {
+		BasicBSONObject n = base();
+		n.put("v", Arrays.asList("p", "q", "r", "s", "t"));
+		assertEquals(new BasicDBObject("$pushAll", new BasicDBObject("v",
+				Arrays.asList("s", "t"))), diff(n));
+	}
+
+	@Test
+	public void testPullAll() {
+		BasicBSONObject n = base();
+		n.put("v", Arrays.asList("p", "r"));
+		assertEquals(new BasicDBObject("$pullAll", new BasicDBObject("v",
+				Arrays.asList("q"))), diff(n));
+	}
+
+	@Test
+	public void testSetElement() {
+		BasicBSONObject n = base();
+		n.put("v", Arrays.asList("p", "x", "r"));
+		assertEquals(new BasicDBObject("$set", new BasicDBObject("v.1", "x")),
+				diff(n));
+	}
+
+	@Test
+	public void testSetWholeList() {
+		// pulling "p" would also remove the one that is kept
+		BasicBSONObject o = new BasicBSONObject("v", Arrays.asList("p", "q",
+				"p"));
+		BasicBSONObject n = new BasicBSONObject("v", Arrays.asList("p", "q"));
+		assertEquals(new BasicDBObject("$set", new BasicDBObject("v", Arrays
+				.asList("p", "q"))), Versioning.diff(o, n));
+	}
+
+	@Test
+	public void testWithVersion() {
+		BSONBackedObject o = BSONBackedObjectLoader.wrap(base(), null);
+		BSONBackedObject next = o.withVersion(4);
+		assertEquals(Integer.valueOf(4), Versioning.getVersion(next));
+		assertEquals(Integer.valueOf(3), Versioning.getVersion(o));
+		assertEquals(new BasicDBObject(), Versioning.diff(o.getBSON(), next
+				.getBSON()));
+	}
+
+	@Test
+	public void testUpdateWithoutChange() {
+		// findOne is final and calls the package-private __find
+		DBCollection collection = mock(DBCollection.class,
+				new Answer<Object>() {
+					public Object answer(InvocationOnMock invocation)
+							throws Throwable {
+						String method = invocation.getMethod().getName();
+						if (method.equals("setDBDecoderFactory"))
+							return invocation.callRealMethod();
+						if (method.equals("__find"))
+							return Collections.singletonList(
+									new BasicDBObject(base().toMap()))
+									.iterator();
+						if (method.equals("getOptions"))
+							return 0;
+						if (method.equals("update"))
+							throw new AssertionError("nothing to update");
+						return null;
+					}
+				});
+		collection.setDBDecoderFactory(DefaultDBDecoder.FACTORY);
+		BSONBackedObject current = Versioning.update(collection, 1,
+				new Versioning.Modification() {
+					public BSONBackedObject apply(BSONBackedObject current) {
+						// a subclass with the same data, like a Review
+						return new BSONBackedObject(current, null) {
+						};
+					}
+				});
+		assertEquals(Integer.valueOf(3), Versioning.getVersion(current));
+	}
+
+}
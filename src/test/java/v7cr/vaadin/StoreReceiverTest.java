@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2012, Thilo Planz. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package v7cr.vaadin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import v7cr.v7db.FileStore;
+import v7cr.v7db.LocalFileStore;
+
+public class StoreReceiverTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+
+	private LocalFileStore store;
+
+	@Before
+	public void setUp() {
+		root = new File(folder.getRoot(), "store");
+		store = new LocalFileStore(root);
+	}
+
+	private String sha(byte[] data) throws IOException {
+		return new LocalFileStore(new File(folder.getRoot(), "expected"))
+				.store(new ByteArrayInputStream(data));
+	}
+
+	private byte[] read(String sha) throws IOException {
+		FileStore.Content c = store.get(sha);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		c.writeTo(Channels.newChannel(out));
+		return out.toByteArray();
+	}
+
+	private static byte[] data(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 31);
+		return data;
+	}
+
+	private void check(int length) throws IOException {
+		byte[] data = data(length);
+		StoreReceiver r = new StoreReceiver(store, 100);
+		r.write(data, 0, 40);
+		// single bytes across the threshold
+		int i = 40;
+		for (; i < Math.min(data.length, 150); i++)
+			r.write(data[i]);
+		r.write(data, i, data.length - i);
+		r.close();
+		String sha = r.finish();
+		assertEquals(sha(data), sha);
+		assertEquals(data.length, r.getLength());
+		assertArrayEquals(data, read(sha));
+	}
+
+	@Test
+	public void testBelowThreshold() throws IOException {
+		check(50);
+	}
+
+	@Test
+	public void testAboveThreshold() throws IOException {
+		check(1000);
+	}
+
+	@Test
+	public void testAbort() throws IOException {
+		byte[] data = data(1000);
+		StoreReceiver r = new StoreReceiver(store, 100);
+		r.write(data, 0, data.length);
+		r.abort();
+		assertEquals(0, root.list().length);
+		assertNull(store.get(sha(data)));
+	}
+
+	@Test
+	public void testWriteAfterAbort() throws IOException {
+		StoreReceiver r = new StoreReceiver(store, 100);
+		r.write(data(10), 0, 10);
+		r.abort();
+		try {
+			r.write(data(10), 0, 10);
+			fail("write after abort");
+		} catch (IOException e) {
+		}
+		try {
+			r.finish();
+			fail("finish after abort");
+		} catch (IOException e) {
+		}
+		r.abort();
+		assertEquals(0, root.list().length);
+	}
+
+}